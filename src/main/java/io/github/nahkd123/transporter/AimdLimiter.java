@@ -0,0 +1,64 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright © 2025 Tran Huu An
+ * 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the “Software”), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.github.nahkd123.transporter;
+
+final class AimdLimiter implements RequestLimiter {
+	private static final double BACKOFF_RATIO = 0.9;
+
+	private final int maxLimit;
+	private final long latencyThresholdNanos;
+	private volatile int limit;
+
+	AimdLimiter(int initialLimit, int maxLimit, long latencyThresholdNanos) {
+		if (initialLimit <= 0 || initialLimit > maxLimit)
+			throw new IllegalArgumentException("Initial limit must be between 1 and %d: %d".formatted(maxLimit, initialLimit));
+		if (latencyThresholdNanos <= 0L)
+			throw new IllegalArgumentException("Non-positive latency threshold: %dns".formatted(latencyThresholdNanos));
+		this.limit = initialLimit;
+		this.maxLimit = maxLimit;
+		this.latencyThresholdNanos = latencyThresholdNanos;
+	}
+
+	@Override
+	public int limit() {
+		return limit;
+	}
+
+	@Override
+	public synchronized void onSample(long rttNanos, int inFlight, boolean dropped) {
+		if (dropped || rttNanos > latencyThresholdNanos) {
+			limit = Math.max(1, (int) (limit * BACKOFF_RATIO));
+		} else if (inFlight * 2 >= limit) {
+			// Growing while most of the window is unused would not be backed by samples
+			limit = Math.min(maxLimit, limit + 1);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "RequestLimiter[aimd, limit=%d, maxLimit=%d, latencyThreshold=%dns]"
+			.formatted(limit, maxLimit, latencyThresholdNanos);
+	}
+}
@@ -0,0 +1,285 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright © 2025 Tran Huu An
+ * 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the “Software”), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.github.nahkd123.transporter;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * <p>
+ * Drives connections on {@link AsynchronousSocketChannel}. Reads and writes are
+ * started with completion handlers, which parse received packets and chain the
+ * next write, so the connections are driven by the thread pool of channel's
+ * {@link AsynchronousChannelGroup} without a selector loop or polling.
+ * </p>
+ * {@snippet :
+ * AsynchronousChannelGroup group = AsynchronousChannelGroup.withFixedThreadPool(4, Thread.ofPlatform().factory());
+ * AsynchronousServerSocketChannel listener = AsynchronousServerSocketChannel.open(group).bind(address);
+ * AsynchronousDriver.accept(listener, channel -> new MyConnection());
+ * 
+ * MyConnection client = AsynchronousDriver.connect(group, address, channel -> new MyConnection()).join();
+ * }
+ * <p>
+ * Each connection always has a pending read, so it holds its read buffer for
+ * its lifetime. File regions are copied through write buffer, as asynchronous
+ * channels can't be used with {@code transferTo()}. The wakeup hook of driven
+ * connections is replaced. Closing connection closes the channel.
+ * </p>
+ */
+public final class AsynchronousDriver {
+	private AsynchronousDriver() {}
+
+	/**
+	 * <p>
+	 * Start driving the connection on connected channel.
+	 * </p>
+	 * 
+	 * @param <C>        Type of connection.
+	 * @param channel    The connected channel.
+	 * @param connection The connection.
+	 * @return The connection.
+	 */
+	public static <C extends RawConnection> C drive(AsynchronousSocketChannel channel, C connection) {
+		Objects.requireNonNull(channel, "'channel' is null");
+		Objects.requireNonNull(connection, "'connection' is null");
+		new Session(channel, connection).start();
+		return connection;
+	}
+
+	/**
+	 * <p>
+	 * Accept incoming channels and drive them with connections created from
+	 * factory, until the listener is closed.
+	 * </p>
+	 * 
+	 * @param <C>      Type of connection.
+	 * @param listener The listener.
+	 * @param factory  The connection factory.
+	 */
+	public static <C extends RawConnection> void accept(AsynchronousServerSocketChannel listener, Function<AsynchronousSocketChannel, C> factory) {
+		Objects.requireNonNull(listener, "'listener' is null");
+		Objects.requireNonNull(factory, "'factory' is null");
+
+		listener.accept(null, new CompletionHandler<AsynchronousSocketChannel, Void>() {
+			@Override
+			public void completed(AsynchronousSocketChannel channel, Void attachment) {
+				listener.accept(null, this);
+
+				try {
+					drive(channel, factory.apply(channel));
+				} catch (Throwable t) {
+					closeQuietly(channel);
+				}
+			}
+
+			@Override
+			public void failed(Throwable error, Void attachment) {
+				closeQuietly(listener);
+			}
+		});
+	}
+
+	/**
+	 * <p>
+	 * Connect to address and drive the channel with connection created from
+	 * factory.
+	 * </p>
+	 * 
+	 * @param <C>     Type of connection.
+	 * @param group   The channel group, or {@code null} for default group.
+	 * @param address The address to connect to.
+	 * @param factory The connection factory.
+	 * @return The task that will be completed with connection once connected.
+	 */
+	public static <C extends RawConnection> CompletableFuture<C> connect(AsynchronousChannelGroup group, SocketAddress address, Function<AsynchronousSocketChannel, C> factory) {
+		Objects.requireNonNull(address, "'address' is null");
+		Objects.requireNonNull(factory, "'factory' is null");
+		CompletableFuture<C> task = new CompletableFuture<>();
+		AsynchronousSocketChannel channel;
+
+		try {
+			channel = AsynchronousSocketChannel.open(group);
+		} catch (IOException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+
+		channel.connect(address, null, new CompletionHandler<Void, Void>() {
+			@Override
+			public void completed(Void result, Void attachment) {
+				try {
+					task.complete(drive(channel, factory.apply(channel)));
+				} catch (Throwable t) {
+					closeQuietly(channel);
+					task.completeExceptionally(t);
+				}
+			}
+
+			@Override
+			public void failed(Throwable error, Void attachment) {
+				closeQuietly(channel);
+				task.completeExceptionally(error);
+			}
+		});
+
+		return task;
+	}
+
+	private static void closeQuietly(AutoCloseable closeable) {
+		try {
+			closeable.close();
+		} catch (Exception e) {
+			// Nothing we can do
+		}
+	}
+
+	private static class Session {
+		private final AsynchronousSocketChannel channel;
+		private final RawConnection connection;
+		private final AtomicBoolean writing = new AtomicBoolean();
+		// Deadline of pending flush task, or Long.MAX_VALUE if there is none
+		private final AtomicLong flushAt = new AtomicLong(Long.MAX_VALUE);
+		private final CompletionHandler<Integer, Void> readHandler = new CompletionHandler<>() {
+			@Override
+			public void completed(Integer bytesRead, Void attachment) {
+				try {
+					connection.endRead(bytesRead);
+				} catch (IOException e) {
+					// Connection is already closed with error
+				}
+
+				if (connection.isClosed()) terminate();
+				else read();
+			}
+
+			@Override
+			public void failed(Throwable error, Void attachment) {
+				connection.readFailed(error);
+				terminate();
+			}
+		};
+		private final CompletionHandler<Integer, Void> writeHandler = new CompletionHandler<>() {
+			@Override
+			public void completed(Integer bytesWritten, Void attachment) {
+				connection.endWrite(bytesWritten);
+				write();
+			}
+
+			@Override
+			public void failed(Throwable error, Void attachment) {
+				connection.writeFailed(error);
+				writing.set(false);
+				terminate();
+			}
+		};
+
+		Session(AsynchronousSocketChannel channel, RawConnection connection) {
+			this.channel = channel;
+			this.connection = connection;
+		}
+
+		void start() {
+			connection.setWakeupHook(this::scheduleWrite);
+			read();
+			scheduleWrite();
+		}
+
+		private void read() {
+			try {
+				channel.read(connection.beginRead(), null, readHandler);
+			} catch (Throwable t) {
+				readHandler.failed(t, null);
+			}
+		}
+
+		private void scheduleWrite() {
+			if (writing.compareAndSet(false, true)) write();
+		}
+
+		private void write() {
+			while (true) {
+				ByteBuffer buffer;
+
+				try {
+					buffer = connection.beginWrite();
+				} catch (IOException e) {
+					buffer = null;
+				}
+
+				if (buffer != null) {
+					channel.write(buffer, null, writeHandler);
+					return;
+				}
+
+				writing.set(false);
+
+				if (connection.isClosed()) {
+					closeQuietly(channel);
+					return;
+				}
+
+				// Packets queued after beginWrite() could not start another write
+				if (!connection.hasPendingWrites() || connection.isHoldingWrites()
+					|| !writing.compareAndSet(false, true)) break;
+			}
+
+			long deadline = connection.getFlushDeadline();
+			if (deadline != Long.MAX_VALUE) scheduleFlush(deadline);
+		}
+
+		private void scheduleFlush(long deadline) {
+			while (true) {
+				long scheduled = flushAt.get();
+				// Pending task runs write() no later than deadline, which schedules again if
+				// packets are still held
+				if (scheduled != Long.MAX_VALUE && scheduled - deadline <= 0L) return;
+				if (flushAt.compareAndSet(scheduled, deadline)) break;
+			}
+
+			CompletableFuture
+				.delayedExecutor(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)
+				.execute(() -> {
+					flushAt.compareAndSet(deadline, Long.MAX_VALUE);
+					scheduleWrite();
+				});
+		}
+
+		private void terminate() {
+			closeQuietly(channel);
+			// Release write buffer once pending write completes
+			scheduleWrite();
+		}
+	}
+}
@@ -0,0 +1,218 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright © 2025 Tran Huu An
+ * 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the “Software”), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.github.nahkd123.transporter;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * A pool of direct byte buffers, grouped into size classes. Buffers of each size
+ * class are carved from slabs, which are large direct buffers allocated on
+ * demand. Leased buffers must be returned to the pool with
+ * {@link #release(ByteBuffer)} when they are no longer used. Pool can be shared
+ * between many connections and threads.
+ * </p>
+ * <p>
+ * The pool is usually used for connection buffers, so that a connection only
+ * holds buffers while it is actually reading or writing packets:
+ * </p>
+ * {@snippet :
+ * static final BufferPool POOL = new BufferPool(64, 4096, 65548);
+ * 
+ * &#64;Override
+ * protected ByteBuffer createConnectionBuffer() {
+ * 	return POOL.lease(65548);
+ * }
+ * 
+ * &#64;Override
+ * protected boolean releaseConnectionBuffer(ByteBuffer buffer) {
+ * 	POOL.release(buffer);
+ * 	return true;
+ * }
+ * }
+ * 
+ * @see RawConnection#createConnectionBuffer()
+ * @see RawConnection#releaseConnectionBuffer(ByteBuffer)
+ */
+public final class BufferPool {
+	private final int buffersPerSlab;
+	private final SizeClass[] classes;
+	private final AtomicInteger leased = new AtomicInteger();
+	private final AtomicInteger idle = new AtomicInteger();
+	private final AtomicInteger highWater = new AtomicInteger();
+
+	/**
+	 * <p>
+	 * Create a new buffer pool.
+	 * </p>
+	 * 
+	 * @param buffersPerSlab The number of buffers allocated at once when a size
+	 *                       class runs out of idle buffers.
+	 * @param sizes          The capacity of buffers for each size class.
+	 */
+	public BufferPool(int buffersPerSlab, int... sizes) {
+		if (buffersPerSlab <= 0)
+			throw new IllegalArgumentException("Buffers per slab must be positive: %d".formatted(buffersPerSlab));
+		if (sizes.length == 0) throw new IllegalArgumentException("No size classes");
+		int[] sorted = sizes.clone();
+		Arrays.sort(sorted);
+
+		this.buffersPerSlab = buffersPerSlab;
+		this.classes = new SizeClass[sorted.length];
+
+		for (int i = 0; i < sorted.length; i++) {
+			if (sorted[i] <= 0) throw new IllegalArgumentException("Size must be positive: %d".formatted(sorted[i]));
+			if (i > 0 && sorted[i] == sorted[i - 1])
+				throw new IllegalArgumentException("Duplicated size class: %d".formatted(sorted[i]));
+			if ((long) sorted[i] * buffersPerSlab > Integer.MAX_VALUE)
+				throw new IllegalArgumentException("Slab of size class %d is too large".formatted(sorted[i]));
+			classes[i] = new SizeClass(sorted[i]);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Lease a buffer from this pool. The buffer is cleared and have big-endian byte
+	 * order. Its capacity is the smallest size class that can hold
+	 * {@code minCapacity} bytes.
+	 * </p>
+	 * 
+	 * @param minCapacity The minimum capacity of buffer.
+	 * @return The leased buffer.
+	 */
+	public ByteBuffer lease(int minCapacity) {
+		for (SizeClass sizeClass : classes) {
+			if (sizeClass.size < minCapacity) continue;
+			ByteBuffer buffer = sizeClass.lease();
+			if (buffer != null) idle.decrementAndGet();
+			else buffer = allocateSlab(sizeClass);
+
+			int count = leased.incrementAndGet();
+			highWater.accumulateAndGet(count, Math::max);
+			return buffer.clear().order(ByteOrder.BIG_ENDIAN);
+		}
+
+		throw new IllegalArgumentException("No size class can hold %d bytes".formatted(minCapacity));
+	}
+
+	/**
+	 * <p>
+	 * Return a leased buffer to this pool. The buffer must not be used after
+	 * releasing. Leased buffers are tracked by identity, so releasing the same
+	 * buffer twice, or a buffer that was not leased from this pool (including its
+	 * duplicates and slices), is rejected instead of handing the same memory to 2
+	 * users.
+	 * </p>
+	 * 
+	 * @param buffer The buffer that was leased from this pool.
+	 * @throws IllegalArgumentException If the buffer is not currently leased from
+	 *                                  this pool.
+	 */
+	public void release(ByteBuffer buffer) {
+		Objects.requireNonNull(buffer, "'buffer' is null");
+
+		for (SizeClass sizeClass : classes) {
+			if (sizeClass.size != buffer.capacity() || !sizeClass.release(buffer)) continue;
+			leased.decrementAndGet();
+			idle.incrementAndGet();
+			return;
+		}
+
+		throw new IllegalArgumentException("Buffer is not leased from this pool: %s".formatted(buffer));
+	}
+
+	private ByteBuffer allocateSlab(SizeClass sizeClass) {
+		ByteBuffer slab = ByteBuffer.allocateDirect(sizeClass.size * buffersPerSlab);
+		ByteBuffer buffer = slab.slice(0, sizeClass.size);
+		sizeClass.addSlab(slab, buffer);
+		idle.addAndGet(buffersPerSlab - 1);
+		return buffer;
+	}
+
+	/**
+	 * <p>
+	 * Get the number of buffers that are currently leased.
+	 * </p>
+	 * 
+	 * @return The number of leased buffers.
+	 */
+	public int getLeasedBuffers() { return leased.get(); }
+
+	/**
+	 * <p>
+	 * Get the number of buffers that are allocated but not leased.
+	 * </p>
+	 * 
+	 * @return The number of idle buffers.
+	 */
+	public int getIdleBuffers() { return idle.get(); }
+
+	/**
+	 * <p>
+	 * Get the highest number of buffers that were leased at the same time.
+	 * </p>
+	 * 
+	 * @return The high-water mark of leased buffers.
+	 */
+	public int getHighWaterMark() { return highWater.get(); }
+
+	private static final class SizeClass {
+		private final int size;
+		private final Deque<ByteBuffer> buffers = new ArrayDeque<>();
+		// ByteBuffer.equals() compares content, so leased buffers are kept by identity
+		private final Set<ByteBuffer> leased = Collections.newSetFromMap(new IdentityHashMap<>());
+
+		SizeClass(int size) {
+			this.size = size;
+		}
+
+		synchronized ByteBuffer lease() {
+			ByteBuffer buffer = buffers.pollLast();
+			if (buffer != null) leased.add(buffer);
+			return buffer;
+		}
+
+		synchronized boolean release(ByteBuffer buffer) {
+			if (!leased.remove(buffer)) return false;
+			buffers.addLast(buffer);
+			return true;
+		}
+
+		synchronized void addSlab(ByteBuffer slab, ByteBuffer leasedBuffer) {
+			leased.add(leasedBuffer);
+			int count = slab.capacity() / size;
+			for (int i = 1; i < count; i++) buffers.addLast(slab.slice(i * size, size));
+		}
+	}
+}
@@ -0,0 +1,166 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright © 2025 Tran Huu An
+ * 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the “Software”), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.github.nahkd123.transporter;
+
+import java.io.IOException;
+import java.nio.channels.ByteChannel;
+import java.util.Objects;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>
+ * Drives a connection with one reader thread and one writer thread, so reading
+ * and writing happen in parallel on a blocking channel. The reader blocks in
+ * {@link RawConnection#channelRead(ByteChannel)} and the writer sleeps until a
+ * packet is queued or the flush deadline is reached, so neither thread polls.
+ * </p>
+ * {@snippet :
+ * SocketChannel channel = SocketChannel.open(address);
+ * MyConnection connection = DuplexDriver.drive(channel, new MyConnection());
+ * }
+ * <p>
+ * This is suitable for a small number of busy connections, where a packet being
+ * decoded should not delay packets being written (and vice versa). For many
+ * connections, use {@link TransporterServer} instead. The wakeup hook of driven
+ * connection is replaced. Closing connection closes the channel, which wakes up
+ * the reader thread. Interrupting either thread closes the connection.
+ * </p>
+ */
+public final class DuplexDriver {
+	private static final ThreadFactory DEFAULT_FACTORY = Thread.ofPlatform()
+		.name("transporter-duplex-", 0L)
+		.daemon()
+		.factory();
+
+	private DuplexDriver() {}
+
+	/**
+	 * <p>
+	 * Start driving the connection on channel with daemon platform threads.
+	 * </p>
+	 * 
+	 * @param <C>        Type of connection.
+	 * @param channel    The channel, preferably in blocking mode.
+	 * @param connection The connection.
+	 * @return The connection.
+	 * @see #drive(ByteChannel, RawConnection, ThreadFactory)
+	 */
+	public static <C extends RawConnection> C drive(ByteChannel channel, C connection) {
+		return drive(channel, connection, DEFAULT_FACTORY);
+	}
+
+	/**
+	 * <p>
+	 * Start driving the connection on channel with threads created from factory.
+	 * Non-blocking channels are supported, but the threads will poll the channel
+	 * every 1ms while it has nothing to read or can't take more bytes.
+	 * </p>
+	 * 
+	 * @param <C>           Type of connection.
+	 * @param channel       The channel, preferably in blocking mode.
+	 * @param connection    The connection.
+	 * @param threadFactory The factory for creating reader and writer threads.
+	 * @return The connection.
+	 */
+	public static <C extends RawConnection> C drive(ByteChannel channel, C connection, ThreadFactory threadFactory) {
+		Objects.requireNonNull(channel, "'channel' is null");
+		Objects.requireNonNull(connection, "'connection' is null");
+		Objects.requireNonNull(threadFactory, "'threadFactory' is null");
+		Thread reader = threadFactory.newThread(() -> read(channel, connection));
+		Thread writer = threadFactory.newThread(() -> write(channel, connection));
+		if (reader == null || writer == null) throw new NullPointerException("threadFactory.newThread() returns null");
+
+		connection.setWakeupHook(() -> LockSupport.unpark(writer));
+		writer.start();
+		reader.start();
+		return connection;
+	}
+
+	private static void read(ByteChannel channel, RawConnection connection) {
+		try {
+			while (!connection.isClosed()) {
+				if (!connection.channelRead(channel)) LockSupport.parkNanos(1000000L);
+				if (Thread.interrupted()) connection.close();
+			}
+		} catch (IOException e) {
+			// Connection is already closed with error
+		} finally {
+			// Release read buffer of closed connection
+			readQuietly(channel, connection);
+			closeQuietly(channel);
+		}
+	}
+
+	private static void write(ByteChannel channel, RawConnection connection) {
+		try {
+			while (!connection.isClosed()) {
+				connection.channelWrite(channel);
+
+				if (!connection.hasPendingWrites() || connection.isHoldingWrites()) {
+					// Packets queued after channelWrite() leaves a permit, so park returns
+					long deadline = connection.getFlushDeadline();
+					if (deadline == Long.MAX_VALUE) LockSupport.park(connection);
+					else LockSupport.parkNanos(connection, deadline - System.nanoTime());
+				} else {
+					// Non-blocking channel can't take more bytes at the moment
+					LockSupport.parkNanos(connection, 1000000L);
+				}
+
+				if (Thread.interrupted()) connection.close();
+			}
+		} catch (IOException e) {
+			// Connection is already closed with error
+		} finally {
+			// Release write buffer of closed connection
+			writeQuietly(channel, connection);
+			closeQuietly(channel);
+		}
+	}
+
+	private static void readQuietly(ByteChannel channel, RawConnection connection) {
+		try {
+			connection.channelRead(channel);
+		} catch (IOException e) {
+			// Nothing we can do
+		}
+	}
+
+	private static void writeQuietly(ByteChannel channel, RawConnection connection) {
+		try {
+			connection.channelWrite(channel);
+		} catch (IOException e) {
+			// Nothing we can do
+		}
+	}
+
+	private static void closeQuietly(AutoCloseable closeable) {
+		try {
+			closeable.close();
+		} catch (Exception e) {
+			// Nothing we can do
+		}
+	}
+}
@@ -0,0 +1,126 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright © 2025 Tran Huu An
+ * 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the “Software”), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.github.nahkd123.transporter;
+
+import java.nio.channels.ByteChannel;
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * <p>
+ * Flush policy decides whether {@link RawConnection#channelWrite(ByteChannel)}
+ * writes encoded packets to channel right away, or holds them in write buffer
+ * for a little while so that more packets can be written together in a single
+ * write call. Holding packets trades latency for fewer system calls and larger
+ * writes, which is good for bulk streams of small notifications.
+ * </p>
+ * <ul>
+ * <li>{@link #immediate()}: Write as soon as possible. This is the default
+ * policy, and the best one for latency sensitive connections;</li>
+ * <li>{@link #coalesce(int, Duration)}: Hold packets until there are enough
+ * bytes or the oldest held packet waited long enough;</li>
+ * <li>{@link #explicit()}: Hold packets until {@link RawConnection#flush()} is
+ * called.</li>
+ * </ul>
+ * <p>
+ * Packets are never held when write buffer is full or a file region is waiting
+ * to be transferred. When packets are held, drivers should not wait for the
+ * channel to be writable (see {@link RawConnection#isHoldingWrites()}), and
+ * should call {@link RawConnection#channelWrite(ByteChannel)} again at
+ * {@link RawConnection#getFlushDeadline()}. {@link TransporterServer} does this
+ * automatically, with precision of about 1 millisecond.
+ * </p>
+ * 
+ * @see RawConnection#setFlushPolicy(FlushPolicy)
+ */
+public final class FlushPolicy {
+	private static final FlushPolicy IMMEDIATE = new FlushPolicy(0, 0L);
+	private static final FlushPolicy EXPLICIT = new FlushPolicy(Integer.MAX_VALUE, Long.MAX_VALUE);
+
+	final int maxBytes;
+	final long maxDelayNanos;
+
+	private FlushPolicy(int maxBytes, long maxDelayNanos) {
+		this.maxBytes = maxBytes;
+		this.maxDelayNanos = maxDelayNanos;
+	}
+
+	/**
+	 * <p>
+	 * Get the policy that writes packets as soon as possible.
+	 * </p>
+	 * 
+	 * @return The flush policy.
+	 */
+	public static FlushPolicy immediate() {
+		return IMMEDIATE;
+	}
+
+	/**
+	 * <p>
+	 * Get the policy that holds packets until {@link RawConnection#flush()} is
+	 * called or write buffer is full.
+	 * </p>
+	 * 
+	 * @return The flush policy.
+	 */
+	public static FlushPolicy explicit() {
+		return EXPLICIT;
+	}
+
+	/**
+	 * <p>
+	 * Create a policy that holds packets until at least {@code maxBytes} bytes are
+	 * waiting to be written, or the first held packet has waited for
+	 * {@code maxDelay}, whichever comes first.
+	 * </p>
+	 * {@snippet :
+	 * // Up to 16KiB or 200 microseconds
+	 * connection.setFlushPolicy(FlushPolicy.coalesce(16384, Duration.ofNanos(200000L)));
+	 * }
+	 * 
+	 * @param maxBytes The number of bytes that will be written without waiting.
+	 * @param maxDelay The maximum time to hold packets.
+	 * @return The flush policy.
+	 */
+	public static FlushPolicy coalesce(int maxBytes, Duration maxDelay) {
+		Objects.requireNonNull(maxDelay, "'maxDelay' is null");
+		if (maxBytes <= 0) throw new IllegalArgumentException("Non-positive maxBytes: %d".formatted(maxBytes));
+		if (maxDelay.isNegative()) throw new IllegalArgumentException("Negative maxDelay: %s".formatted(maxDelay));
+		long maxDelayNanos = maxDelay.compareTo(Duration.ofNanos(Long.MAX_VALUE)) >= 0 ? Long.MAX_VALUE : maxDelay.toNanos();
+		return new FlushPolicy(maxBytes, maxDelayNanos);
+	}
+
+	boolean isImmediate() {
+		return maxBytes == 0;
+	}
+
+	@Override
+	public String toString() {
+		if (this == IMMEDIATE) return "FlushPolicy[immediate]";
+		if (this == EXPLICIT) return "FlushPolicy[explicit]";
+		return "FlushPolicy[coalesce, maxBytes=%d, maxDelay=%dns]".formatted(maxBytes, maxDelayNanos);
+	}
+}
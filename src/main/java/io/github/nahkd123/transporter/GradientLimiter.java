@@ -0,0 +1,74 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright © 2025 Tran Huu An
+ * 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the “Software”), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.github.nahkd123.transporter;
+
+final class GradientLimiter implements RequestLimiter {
+	// Weight of each sample in long-term round-trip time, about 600 samples
+	private static final double LONG_RTT_WEIGHT = 2.0 / 601.0;
+	private static final double SMOOTHING = 0.2;
+	private static final double MIN_GRADIENT = 0.5;
+
+	private final int maxLimit;
+	private double estimatedLimit;
+	private double longRttNanos = 0.0;
+	private volatile int limit;
+
+	GradientLimiter(int initialLimit, int maxLimit) {
+		if (initialLimit <= 0 || initialLimit > maxLimit)
+			throw new IllegalArgumentException("Initial limit must be between 1 and %d: %d".formatted(maxLimit, initialLimit));
+		this.estimatedLimit = initialLimit;
+		this.limit = initialLimit;
+		this.maxLimit = maxLimit;
+	}
+
+	@Override
+	public int limit() {
+		return limit;
+	}
+
+	@Override
+	public synchronized void onSample(long rttNanos, int inFlight, boolean dropped) {
+		if (rttNanos <= 0L) return;
+		if (longRttNanos == 0.0) longRttNanos = rttNanos;
+		else longRttNanos += (rttNanos - longRttNanos) * LONG_RTT_WEIGHT;
+
+		// Recover quickly after a long period of high latency, so that the long-term
+		// average does not keep the limit low once peer is fast again
+		if (longRttNanos > rttNanos * 2.0) longRttNanos *= 0.95;
+
+		// Window is mostly unused, so samples say nothing about larger limit
+		if (!dropped && inFlight * 2 < estimatedLimit) return;
+
+		double gradient = dropped ? MIN_GRADIENT : Math.max(MIN_GRADIENT, Math.min(1.0, longRttNanos / rttNanos));
+		double newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+		estimatedLimit = Math.max(1.0, Math.min(maxLimit, estimatedLimit * (1.0 - SMOOTHING) + newLimit * SMOOTHING));
+		limit = (int) estimatedLimit;
+	}
+
+	@Override
+	public String toString() {
+		return "RequestLimiter[gradient, limit=%d, maxLimit=%d]".formatted(limit, maxLimit);
+	}
+}
@@ -0,0 +1,287 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright © 2025 Tran Huu An
+ * 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the “Software”), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.github.nahkd123.transporter;
+
+import java.io.IOException;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ * A single selector thread that drives connections of {@link TransporterServer}.
+ * Channels registered to this loop are owned by this loop and are only touched
+ * from loop thread.
+ * </p>
+ */
+final class IoLoop implements Runnable {
+	private final Selector selector;
+	private final Thread thread;
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+	private final Queue<SelectionKey> wakeups = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean awake = new AtomicBoolean();
+	// Connections with packets held by flush policy until deadline
+	private final Set<SelectionKey> delayed = new HashSet<>();
+	private volatile boolean closed = false;
+	private volatile Consumer<? super Throwable> errorHandler = null;
+
+	IoLoop(String name) throws IOException {
+		selector = Selector.open();
+		thread = Thread.ofPlatform().name(name).daemon(true).unstarted(this);
+		thread.start();
+	}
+
+	boolean inLoop() {
+		return Thread.currentThread() == thread;
+	}
+
+	void execute(Runnable task) {
+		tasks.add(task);
+		wakeupSelector();
+	}
+
+	void wakeup(SelectionKey key) {
+		wakeups.add(key);
+		wakeupSelector();
+	}
+
+	private void wakeupSelector() {
+		if (!inLoop() && awake.compareAndSet(false, true)) selector.wakeup();
+	}
+
+	void listen(ServerSocketChannel listener, TransporterServer<?> server) {
+		execute(() -> {
+			try {
+				listener.register(selector, SelectionKey.OP_ACCEPT, server);
+			} catch (IOException e) {
+				closeQuietly(listener);
+				reportError(e);
+			}
+		});
+	}
+
+	void attach(SocketChannel channel, RawConnection connection) {
+		execute(() -> {
+			try {
+				SelectionKey key = channel.register(selector, SelectionKey.OP_READ, connection);
+				connection.setWakeupHook(() -> wakeup(key));
+				if (connection.isClosed()) cancel(key);
+				else updateInterest(key, connection);
+			} catch (IOException e) {
+				connection.close();
+				closeQuietly(channel);
+			}
+		});
+	}
+
+	void close() {
+		closed = true;
+		awake.set(true);
+		selector.wakeup();
+	}
+
+	void setErrorHandler(Consumer<? super Throwable> errorHandler) {
+		this.errorHandler = errorHandler;
+	}
+
+	void join() throws InterruptedException {
+		if (!inLoop()) thread.join();
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (!closed) {
+				// Anything queued after this point will wake up the next select
+				awake.set(false);
+				runTasks();
+				processWakeups();
+				if (!closed && tasks.isEmpty()) select();
+				processSelectedKeys();
+				processDelayedWrites();
+			}
+		} catch (IOException | RuntimeException e) {
+			// Connections of this loop can't be driven anymore
+			for (SelectionKey key : selector.keys())
+				if (key.attachment() instanceof RawConnection connection) connection.closeFromTransport(false, e);
+			reportError(e);
+		} finally {
+			for (SelectionKey key : selector.keys()) cancel(key);
+			closeQuietly(selector);
+		}
+	}
+
+	private void select() throws IOException {
+		if (delayed.isEmpty()) {
+			selector.select();
+			return;
+		}
+
+		long deadline = Long.MAX_VALUE;
+		for (SelectionKey key : delayed) deadline = Math.min(deadline, ((RawConnection) key.attachment()).getFlushDeadline());
+		long remaining = deadline - System.nanoTime();
+		if (remaining <= 0L) selector.selectNow();
+		else selector.select(Math.max(1L, (remaining + 999999L) / 1000000L));
+	}
+
+	private void processDelayedWrites() {
+		if (delayed.isEmpty()) return;
+		long now = System.nanoTime();
+
+		for (SelectionKey key : delayed.toArray(SelectionKey[]::new)) {
+			RawConnection connection = (RawConnection) key.attachment();
+			if (!key.isValid() || connection.getFlushDeadline() - now > 0L) continue;
+
+			try {
+				connection.channelWrite((ByteChannel) key.channel());
+			} catch (IOException e) {
+				// Connection is already closed with error
+			}
+
+			if (connection.isClosed()) cancel(key);
+			else updateInterest(key, connection);
+		}
+	}
+
+	private void runTasks() {
+		Runnable task;
+		while ((task = tasks.poll()) != null) task.run();
+	}
+
+	private void processWakeups() {
+		SelectionKey key;
+
+		while ((key = wakeups.poll()) != null) {
+			if (!key.isValid()) continue;
+			RawConnection connection = (RawConnection) key.attachment();
+			if (connection.isClosed()) cancel(key);
+			else updateInterest(key, connection);
+		}
+	}
+
+	private void processSelectedKeys() {
+		Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+
+		while (iterator.hasNext()) {
+			SelectionKey key = iterator.next();
+			iterator.remove();
+			if (!key.isValid()) continue;
+
+			switch (key.attachment()) {
+			case TransporterServer<?> server:
+				processAccept(key, server);
+				break;
+			case RawConnection connection:
+				processConnection(key, connection);
+				break;
+			default:
+				break;
+			}
+		}
+	}
+
+	private void processAccept(SelectionKey key, TransporterServer<?> server) {
+		ServerSocketChannel listener = (ServerSocketChannel) key.channel();
+
+		try {
+			SocketChannel channel;
+
+			while ((channel = listener.accept()) != null) {
+				try {
+					server.register(channel);
+				} catch (IOException | RuntimeException e) {
+					// Channel is already closed by register()
+					if (!server.isClosed()) reportError(e);
+				}
+			}
+		} catch (IOException e) {
+			cancel(key);
+			reportError(e);
+		}
+	}
+
+	private void processConnection(SelectionKey key, RawConnection connection) {
+		ByteChannel channel = (ByteChannel) key.channel();
+
+		try {
+			if (key.isReadable()) connection.channelRead(channel);
+			// Responses queued while reading are written right away
+			if (connection.hasPendingWrites()) connection.channelWrite(channel);
+		} catch (IOException e) {
+			// Connection is already closed with error
+		}
+
+		if (connection.isClosed()) cancel(key);
+		else updateInterest(key, connection);
+	}
+
+	private void updateInterest(SelectionKey key, RawConnection connection) {
+		boolean holding = connection.isHoldingWrites();
+		boolean write = connection.hasPendingWrites() && !holding;
+		int ops = SelectionKey.OP_READ | (write ? SelectionKey.OP_WRITE : 0);
+		if (key.interestOps() != ops) key.interestOps(ops);
+		if (holding && connection.getFlushDeadline() != Long.MAX_VALUE) delayed.add(key);
+		else delayed.remove(key);
+	}
+
+	private void cancel(SelectionKey key) {
+		key.cancel();
+		delayed.remove(key);
+		if (key.attachment() instanceof RawConnection connection) {
+			connection.close();
+			connection.releaseBuffers();
+		}
+
+		closeQuietly(key.channel());
+	}
+
+	private void reportError(Throwable error) {
+		Consumer<? super Throwable> handler = errorHandler;
+		if (handler == null) return;
+
+		try {
+			handler.accept(error);
+		} catch (RuntimeException e) {
+			// Error handler must not stop the loop
+		}
+	}
+
+	static void closeQuietly(AutoCloseable closeable) {
+		try {
+			closeable.close();
+		} catch (Exception e) {
+			// Nothing we can do
+		}
+	}
+}
@@ -0,0 +1,159 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright © 2025 Tran Huu An
+ * 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the “Software”), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.github.nahkd123.transporter;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ * Runs tasks on an executor, where tasks with the same key run one after
+ * another in the order they were submitted, and tasks with different keys may
+ * run concurrently. Keys are hashed into a fixed number of stripes, each with
+ * its own lock-free queue; a stripe is drained by at most one task of the
+ * executor at a time. Different keys in the same stripe are also serialized,
+ * so the number of stripes should be well above the number of threads.
+ * </p>
+ * <p>
+ * Tasks are never run on the submitting thread, which is usually the thread
+ * that reads a connection. When executor rejects a stripe, tasks waiting in it
+ * are passed to the rejection handler instead.
+ * </p>
+ */
+final class KeyedExecutor {
+	// Tasks of a stripe to run before giving the thread to other stripes
+	private static final int MAX_TASKS_PER_RUN = 64;
+
+	private final Executor executor;
+	private final Consumer<Runnable> rejectionHandler;
+	private final AtomicReferenceArray<Stripe> stripes;
+	private final int mask;
+
+	KeyedExecutor(Executor executor, int stripes, Consumer<Runnable> rejectionHandler) {
+		if (Integer.bitCount(stripes) != 1)
+			throw new IllegalArgumentException("Number of stripes must be a power of 2: %d".formatted(stripes));
+		this.executor = executor;
+		this.rejectionHandler = rejectionHandler;
+		this.stripes = new AtomicReferenceArray<>(stripes);
+		this.mask = stripes - 1;
+	}
+
+	Executor executor() {
+		return executor;
+	}
+
+	/**
+	 * <p>
+	 * Run task after all tasks with the same key that were submitted before. If
+	 * executor rejects the stripe, the task and other tasks waiting in the stripe
+	 * are passed to rejection handler on this thread.
+	 * </p>
+	 */
+	void execute(Object key, Runnable task) {
+		int hash = key != null ? key.hashCode() : 0;
+		int index = (hash ^ (hash >>> 16)) & mask;
+		Stripe stripe = stripes.get(index);
+
+		if (stripe == null) {
+			Stripe created = new Stripe(executor);
+			stripe = stripes.compareAndExchange(index, null, created);
+			if (stripe == null) stripe = created;
+		}
+
+		stripe.tasks.offer(task);
+		if (!stripe.running.compareAndSet(false, true)) return;
+
+		try {
+			executor.execute(stripe);
+		} catch (RejectedExecutionException e) {
+			rejectAll(stripe);
+		}
+	}
+
+	private void rejectAll(Stripe stripe) {
+		// Tasks queued by other threads while running flag is held would wait for
+		// the next task with the same stripe, so they are rejected too
+		do {
+			Runnable task;
+
+			while ((task = stripe.tasks.poll()) != null) {
+				try {
+					rejectionHandler.accept(task);
+				} catch (Throwable t) {
+					t.printStackTrace();
+				}
+			}
+
+			stripe.running.set(false);
+		} while (!stripe.tasks.isEmpty() && stripe.running.compareAndSet(false, true));
+	}
+
+	private static final class Stripe implements Runnable {
+		private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+		private final AtomicBoolean running = new AtomicBoolean();
+		private final Executor executor;
+
+		Stripe(Executor executor) {
+			this.executor = executor;
+		}
+
+		@Override
+		public void run() {
+			int ran = 0;
+
+			while (true) {
+				Runnable task;
+
+				while ((task = tasks.poll()) != null) {
+					try {
+						task.run();
+					} catch (Throwable t) {
+						t.printStackTrace();
+					}
+
+					if (++ran >= MAX_TASKS_PER_RUN && !tasks.isEmpty() && resubmit()) return;
+				}
+
+				// Task may be offered after poll() while running flag is still set
+				running.set(false);
+				if (tasks.isEmpty() || !running.compareAndSet(false, true)) return;
+			}
+		}
+
+		private boolean resubmit() {
+			try {
+				executor.execute(this);
+				return true;
+			} catch (RejectedExecutionException e) {
+				return false;
+			}
+		}
+	}
+}
@@ -0,0 +1,189 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright © 2025 Tran Huu An
+ * 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the “Software”), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.github.nahkd123.transporter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.github.nahkd123.transporter.RawConnection.PacketMode;
+import io.github.nahkd123.transporter.serialize.BufferEncoder;
+
+/**
+ * <p>
+ * In-process transport that links 2 connections in the same JVM directly,
+ * without byte channels. Packets queued on one connection are handed to the
+ * other connection on executor, and {@link TransporterConnection}'s
+ * {@code onRequest()}, {@code queueRequest()} and packet listeners work the same
+ * way as they do over sockets.
+ * </p>
+ * {@snippet :
+ * MyConnection a = new MyConnection(), b = new MyConnection();
+ * LoopbackTransport.link(a, b, Executors.newVirtualThreadPerTaskExecutor());
+ * }
+ * <p>
+ * When both sides are {@link TransporterConnection} and both register the
+ * numerical ID of packet with the same class and codec, the packet object itself
+ * is passed to the peer without encoding, so the peer receives the same
+ * instance. Packets should be
+ * immutable, like records. Other packets (raw packets, failed responses and file
+ * regions) are encoded into a scratch buffer and passed to
+ * {@link RawConnection#onRawPacket(PacketMode, int, int, ByteBuffer)} just like
+ * packets read from channel.
+ * </p>
+ * <p>
+ * With {@link #link(RawConnection, RawConnection, Executor, boolean)}, packet
+ * objects can also be encoded for validation only, which catches packets that
+ * would not fit in a frame or that the codec can't encode, while still handing
+ * the original object to peer.
+ * </p>
+ * <p>
+ * Closing either connection closes the other connection as if the peer closed
+ * the socket. Linked connections must not be used with
+ * {@link RawConnection#channelRead(java.nio.channels.ByteChannel)} or
+ * {@link RawConnection#channelWrite(java.nio.channels.ByteChannel)}, and the
+ * wakeup hooks of both connections are replaced.
+ * </p>
+ */
+public final class LoopbackTransport {
+	private static final int MAX_BODY_SIZE = 0xFFFF;
+
+	private LoopbackTransport() {}
+
+	/**
+	 * <p>
+	 * Link 2 connections together.
+	 * </p>
+	 * 
+	 * @param a        The first connection.
+	 * @param b        The second connection.
+	 * @param executor The executor to deliver packets on. Packets from the same
+	 *                 connection are always delivered one by one, in the order
+	 *                 they are written.
+	 * @see #link(RawConnection, RawConnection, Executor, boolean)
+	 */
+	public static void link(RawConnection a, RawConnection b, Executor executor) {
+		link(a, b, executor, false);
+	}
+
+	/**
+	 * <p>
+	 * Link 2 connections together, optionally encoding packet objects for
+	 * validation.
+	 * </p>
+	 * 
+	 * @param a                The first connection.
+	 * @param b                The second connection.
+	 * @param executor         The executor to deliver packets on.
+	 * @param validateEncoding Whether to encode packet objects before handing them
+	 *                         to peer. Encoding failure closes the sending
+	 *                         connection with error.
+	 */
+	public static void link(RawConnection a, RawConnection b, Executor executor, boolean validateEncoding) {
+		Objects.requireNonNull(a, "'a' is null");
+		Objects.requireNonNull(b, "'b' is null");
+		Objects.requireNonNull(executor, "'executor' is null");
+		if (a == b) throw new IllegalArgumentException("Can't link connection to itself");
+
+		Pump ab = new Pump(a, b, executor, validateEncoding);
+		Pump ba = new Pump(b, a, executor, validateEncoding);
+		a.setWakeupHook(ab::schedule);
+		b.setWakeupHook(ba::schedule);
+		// Packets may have been queued before linking
+		ab.schedule();
+		ba.schedule();
+	}
+
+	private static class Pump implements Runnable, RawConnection.PacketSink {
+		private final RawConnection sender;
+		private final RawConnection receiver;
+		private final Executor executor;
+		private final boolean validateEncoding;
+		private final AtomicBoolean draining = new AtomicBoolean();
+		private ByteBuffer scratch = null;
+
+		Pump(RawConnection sender, RawConnection receiver, Executor executor, boolean validateEncoding) {
+			this.sender = sender;
+			this.receiver = receiver;
+			this.executor = executor;
+			this.validateEncoding = validateEncoding;
+		}
+
+		void schedule() {
+			if (draining.compareAndSet(false, true)) executor.execute(this);
+		}
+
+		@Override
+		public void run() {
+			do {
+				drain();
+				draining.set(false);
+				// Packet queued after the last drain could not schedule another run
+			} while (hasWork() && draining.compareAndSet(false, true));
+		}
+
+		private boolean hasWork() {
+			return sender.hasPendingWrites() || sender.isClosed() != receiver.isClosed();
+		}
+
+		private void drain() {
+			try {
+				sender.transferWrites(this);
+			} catch (Throwable t) {
+				sender.closeFromTransport(false, t);
+			}
+
+			if (sender.isClosed()) receiver.closeFromTransport(true, null);
+			if (receiver.isClosed()) sender.closeFromTransport(true, null);
+		}
+
+		@Override
+		public void accept(PacketMode mode, int type, int reqId, BufferEncoder<Object> encoder, Object value) throws IOException {
+			if (receiver.isClosed()) return;
+
+			boolean direct = mode != PacketMode.RESPONSE_FAILED
+				&& sender instanceof TransporterConnection s
+				&& receiver instanceof TransporterConnection r
+				&& s.isDirectPacket(type, encoder, value, r);
+			ByteBuffer buffer = direct && !validateEncoding ? null : encode(encoder, value);
+
+			try {
+				if (direct) ((TransporterConnection) receiver).handlePacket(mode, reqId, value);
+				else receiver.deliverRawPacket(mode, type, reqId, buffer);
+			} catch (Throwable t) {
+				// Same as failing in channelRead() on receiver side
+				receiver.closeFromTransport(false, t);
+			}
+		}
+
+		private ByteBuffer encode(BufferEncoder<Object> encoder, Object value) throws IOException {
+			if (scratch == null) scratch = ByteBuffer.allocate(MAX_BODY_SIZE);
+			RawConnection.encodeBody(encoder, value, scratch.clear());
+			return scratch.flip();
+		}
+	}
+}
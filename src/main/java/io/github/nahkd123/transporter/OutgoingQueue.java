@@ -0,0 +1,213 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright © 2025 Tran Huu An
+ * 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the “Software”), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.github.nahkd123.transporter;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.github.nahkd123.transporter.RawConnection.PacketMode;
+import io.github.nahkd123.transporter.serialize.BufferEncoder;
+
+/**
+ * <p>
+ * Multi-producer, single-consumer queue of outgoing packets. Packets are stored
+ * in ring slots, so queueing a packet does not allocate anything. When the ring
+ * is full, packets spill to an unbounded overflow queue; packets from the same
+ * producer are always consumed in the order they were queued.
+ * </p>
+ * <p>
+ * The ring is allocated by the first packet queued, so connections that never
+ * use a lane (or never write at all) only pay for a few fields.
+ * </p>
+ * <p>
+ * The consumer looks at the head packet with {@link #peek()}, reads its fields
+ * and then removes it with {@link #remove()}.
+ * </p>
+ */
+final class OutgoingQueue {
+	record Entry(PacketMode mode, int type, int reqId, BufferEncoder<Object> encoder, Object value) {
+	}
+
+	private final int capacity;
+	private final int mask;
+	private final AtomicReference<Ring> ring = new AtomicReference<>();
+	private final AtomicLong tail = new AtomicLong();
+	private final Queue<Entry> overflow = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger overflowCount = new AtomicInteger();
+
+	// Consumer state
+	private Ring consumerRing = null;
+	private long head = 0L;
+	private Entry current = null;
+
+	OutgoingQueue(int capacity) {
+		if (Integer.bitCount(capacity) != 1)
+			throw new IllegalArgumentException("Capacity must be a power of 2: %d".formatted(capacity));
+		this.capacity = capacity;
+		this.mask = capacity - 1;
+	}
+
+	private Ring ring() {
+		Ring r = ring.get();
+		if (r != null) return r;
+		Ring created = new Ring(capacity);
+		r = ring.compareAndExchange(null, created);
+		return r != null ? r : created;
+	}
+
+	void offer(PacketMode mode, int type, int reqId, BufferEncoder<Object> encoder, Object value) {
+		if (!offerRing(mode, type, reqId, encoder, value)) offerOverflow(new Entry(mode, type, reqId, encoder, value));
+	}
+
+	void offer(Entry entry) {
+		if (!offerRing(entry.mode, entry.type, entry.reqId, entry.encoder, entry.value)) offerOverflow(entry);
+	}
+
+	private boolean offerRing(PacketMode mode, int type, int reqId, BufferEncoder<Object> encoder, Object value) {
+		// Once something spilled, keep spilling until overflow is drained to keep
+		// the order
+		if (overflowCount.get() != 0) return false;
+		Ring r = ring();
+		long t = tail.get();
+
+		while (true) {
+			int index = (int) t & mask;
+			long sequence = r.sequences.get(index);
+
+			if (sequence == t) {
+				if (tail.compareAndSet(t, t + 1)) {
+					r.modes[index] = mode;
+					r.types[index] = type;
+					r.reqIds[index] = reqId;
+					r.encoders[index] = encoder;
+					r.values[index] = value;
+					r.sequences.set(index, t + 1);
+					return true;
+				}
+			} else if (sequence < t) {
+				return false;
+			}
+
+			t = tail.get();
+		}
+	}
+
+	private void offerOverflow(Entry entry) {
+		overflowCount.incrementAndGet();
+		overflow.add(entry);
+	}
+
+	/**
+	 * <p>
+	 * Look at the head of this queue. Only consumer can call this method.
+	 * </p>
+	 * 
+	 * @return Whether there is a packet at the head of queue.
+	 */
+	boolean peek() {
+		Ring r = consumerRing;
+		if (r == null) r = consumerRing = ring.get();
+		current = null;
+		if (r != null && r.sequences.get((int) head & mask) == head + 1) return true;
+		// Ring packet is being published; overflow packets must come after it
+		if (tail.get() != head) return false;
+		current = overflow.peek();
+		// Producers may have claimed ring slots while we were looking at overflow
+		if (current != null && tail.get() != head) current = null;
+		return current != null;
+	}
+
+	PacketMode mode() {
+		return current != null ? current.mode : consumerRing.modes[(int) head & mask];
+	}
+
+	int type() {
+		return current != null ? current.type : consumerRing.types[(int) head & mask];
+	}
+
+	int reqId() {
+		return current != null ? current.reqId : consumerRing.reqIds[(int) head & mask];
+	}
+
+	BufferEncoder<Object> encoder() {
+		return current != null ? current.encoder : consumerRing.encoders[(int) head & mask];
+	}
+
+	Object value() {
+		return current != null ? current.value : consumerRing.values[(int) head & mask];
+	}
+
+	void encode(ByteBuffer buffer) {
+		encoder().encode(value(), buffer);
+	}
+
+	/**
+	 * <p>
+	 * Remove the head packet that was looked with {@link #peek()}. Only consumer can
+	 * call this method.
+	 * </p>
+	 */
+	void remove() {
+		if (current != null) {
+			overflow.poll();
+			overflowCount.decrementAndGet();
+			current = null;
+			return;
+		}
+
+		Ring r = consumerRing;
+		int index = (int) head & mask;
+		r.modes[index] = null;
+		r.encoders[index] = null;
+		r.values[index] = null;
+		r.sequences.lazySet(index, head + capacity);
+		head++;
+	}
+
+	private static final class Ring {
+		private final AtomicLongArray sequences;
+		private final PacketMode[] modes;
+		private final int[] types;
+		private final int[] reqIds;
+		private final BufferEncoder<Object>[] encoders;
+		private final Object[] values;
+
+		@SuppressWarnings("unchecked")
+		Ring(int capacity) {
+			this.sequences = new AtomicLongArray(capacity);
+			this.modes = new PacketMode[capacity];
+			this.types = new int[capacity];
+			this.reqIds = new int[capacity];
+			this.encoders = (BufferEncoder<Object>[]) new BufferEncoder<?>[capacity];
+			this.values = new Object[capacity];
+			for (int i = 0; i < capacity; i++) sequences.set(i, i);
+		}
+	}
+}
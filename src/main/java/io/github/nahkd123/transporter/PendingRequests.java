@@ -0,0 +1,217 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright © 2025 Tran Huu An
+ * 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the “Software”), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.github.nahkd123.transporter;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * <p>
+ * Table of requests waiting for response, keyed by request ID. Each request
+ * takes a slot in a table that grows by chunks; the request ID is made of slot
+ * index and a generation that is bumped every time the slot is reused, so a
+ * late response for an old request does not complete a new request in the same
+ * slot (until the generation wraps around). Free slots are kept in a lock-free
+ * stack, so registering and completing requests does not allocate anything
+ * other than the request future.
+ * </p>
+ * <p>
+ * Slot index is stored above generation bits, so connections with only a few
+ * requests in flight keep using small request IDs, which are encoded in fewer
+ * bytes with {@link RawConnection.HeaderFormat#COMPACT}.
+ * </p>
+ */
+final class PendingRequests {
+	private static final int GENERATION_BITS = 12;
+	private static final int GENERATION_MASK = (1 << GENERATION_BITS) - 1;
+	private static final int INDEX_BITS = 31 - GENERATION_BITS;
+	static final int MAX_REQUESTS = 1 << INDEX_BITS;
+	private static final int CHUNK_BITS = 10;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	/**
+	 * <p>
+	 * Future of a pending request, which remembers its request ID so it can be
+	 * removed from the table without a separate lookup. The timeout of request is
+	 * cancelled when the request is removed.
+	 * </p>
+	 */
+	static final class Pending<T> extends CompletableFuture<T> {
+		private final int reqId;
+		private volatile TimingWheel.Timeout timeout = null;
+		private volatile boolean answered = false;
+
+		private Pending(int reqId) {
+			this.reqId = reqId;
+		}
+
+		int reqId() {
+			return reqId;
+		}
+
+		void setTimeout(TimingWheel.Timeout timeout) {
+			this.timeout = timeout;
+		}
+
+		/**
+		 * <p>
+		 * Mark this request as completed by response from peer or by timeout, as
+		 * opposed to failing locally. Must be called before completing the future.
+		 * </p>
+		 */
+		void markAnswered() {
+			answered = true;
+		}
+
+		boolean isAnswered() {
+			return answered;
+		}
+
+		private void cancelTimeout() {
+			TimingWheel.Timeout timeout = this.timeout;
+			if (timeout != null) timeout.cancel();
+		}
+	}
+
+	private static final class Chunk {
+		final AtomicReferenceArray<Pending<?>> requests = new AtomicReferenceArray<>(CHUNK_SIZE);
+		// Only touched by the owner of slot, which is handed over through freeHead
+		final int[] generations = new int[CHUNK_SIZE];
+		final int[] next = new int[CHUNK_SIZE];
+	}
+
+	private volatile Chunk[] chunks = new Chunk[] { new Chunk() };
+	private final AtomicInteger allocated = new AtomicInteger();
+	// Tag in upper 32 bits to avoid ABA, index + 1 of top free slot in lower 32 bits
+	private final AtomicLong freeHead = new AtomicLong();
+
+	/**
+	 * <p>
+	 * Register a new request.
+	 * </p>
+	 * 
+	 * @param <T> Type of response.
+	 * @return The request future, with request ID assigned.
+	 * @throws IllegalStateException If there are too many requests in flight.
+	 */
+	<T> Pending<T> register() {
+		int index = acquireSlot();
+		Chunk chunk = chunks[index >>> CHUNK_BITS];
+		int slot = index & CHUNK_MASK;
+		int generation = (chunk.generations[slot] + 1) & GENERATION_MASK;
+		chunk.generations[slot] = generation;
+		Pending<T> request = new Pending<>(index << GENERATION_BITS | generation);
+		chunk.requests.set(slot, request);
+		return request;
+	}
+
+	/**
+	 * <p>
+	 * Remove the request with given ID. Only one caller gets the request when
+	 * multiple threads remove the same request.
+	 * </p>
+	 * 
+	 * @param reqId The request ID.
+	 * @return The removed request, or {@code null} if there is no such request.
+	 */
+	Pending<?> remove(int reqId) {
+		if (reqId < 0) return null;
+		int index = reqId >>> GENERATION_BITS;
+		Chunk[] chunks = this.chunks;
+		if ((index >>> CHUNK_BITS) >= chunks.length) return null;
+		Chunk chunk = chunks[index >>> CHUNK_BITS];
+		int slot = index & CHUNK_MASK;
+		Pending<?> request = chunk.requests.get(slot);
+		if (request == null || request.reqId != reqId || !chunk.requests.compareAndSet(slot, request, null)) return null;
+		releaseSlot(index, chunk);
+		request.cancelTimeout();
+		return request;
+	}
+
+	/**
+	 * <p>
+	 * Remove all requests and complete them exceptionally.
+	 * </p>
+	 * 
+	 * @param error The error to complete requests with.
+	 */
+	void failAll(Throwable error) {
+		Chunk[] chunks = this.chunks;
+		int count = Math.min(allocated.get(), chunks.length * CHUNK_SIZE);
+
+		for (int index = 0; index < count; index++) {
+			Chunk chunk = chunks[index >>> CHUNK_BITS];
+			Pending<?> request = chunk.requests.getAndSet(index & CHUNK_MASK, null);
+			if (request == null) continue;
+			releaseSlot(index, chunk);
+			request.cancelTimeout();
+			request.completeExceptionally(error);
+		}
+	}
+
+	private int acquireSlot() {
+		while (true) {
+			long head = freeHead.get();
+			int index = (int) head - 1;
+
+			if (index < 0) return allocateSlot();
+			int next = chunks[index >>> CHUNK_BITS].next[index & CHUNK_MASK];
+			if (freeHead.compareAndSet(head, ((head >>> 32) + 1) << 32 | (next + 1))) return index;
+		}
+	}
+
+	private int allocateSlot() {
+		int index;
+
+		do {
+			index = allocated.get();
+			if (index >= MAX_REQUESTS) throw new IllegalStateException(
+				"Too many requests in flight (max %d)".formatted(MAX_REQUESTS));
+		} while (!allocated.compareAndSet(index, index + 1));
+
+		if ((index >>> CHUNK_BITS) >= chunks.length) growChunks(index >>> CHUNK_BITS);
+		return index;
+	}
+
+	private synchronized void growChunks(int chunkIndex) {
+		Chunk[] current = chunks;
+		if (chunkIndex < current.length) return;
+		Chunk[] grown = Arrays.copyOf(current, Math.max(chunkIndex + 1, current.length * 2));
+		for (int i = current.length; i < grown.length; i++) grown[i] = new Chunk();
+		chunks = grown;
+	}
+
+	private void releaseSlot(int index, Chunk chunk) {
+		while (true) {
+			long head = freeHead.get();
+			chunk.next[index & CHUNK_MASK] = (int) head - 1;
+			if (freeHead.compareAndSet(head, ((head >>> 32) + 1) << 32 | (index + 1))) return;
+		}
+	}
+}
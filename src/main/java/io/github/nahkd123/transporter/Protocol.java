@@ -0,0 +1,359 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright © 2025 Tran Huu An
+ * 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the “Software”), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.github.nahkd123.transporter;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+
+import io.github.nahkd123.transporter.serialize.BufferCodec;
+import io.github.nahkd123.transporter.serialize.BufferDecoder;
+import io.github.nahkd123.transporter.serialize.BufferEncoder;
+
+/**
+ * <p>
+ * An immutable set of packet types, which can be shared by many
+ * {@link TransporterConnection}s. Build the protocol once and pass it to
+ * connection constructor, instead of registering the same packets again in
+ * every connection.
+ * </p>
+ * {@snippet :
+ * static final Protocol PROTOCOL = Protocol.builder()
+ * 	.register(0x00, MyRequest.class, MyRequest.CODEC)
+ * 	.register(0x01, MyResponse.class, MyResponse.CODEC)
+ * 	.build();
+ * 
+ * public MyConnection() {
+ * 	super(PROTOCOL);
+ * }
+ * }
+ * <p>
+ * Packet types with IDs from 0 to {@value #MAX_DENSE_TYPE} are looked up by
+ * indexing an array, so small consecutive IDs are the fastest. Other IDs are
+ * still supported through a map.
+ * </p>
+ * 
+ * @see TransporterConnection#TransporterConnection(Protocol)
+ */
+public final class Protocol {
+	/**
+	 * <p>
+	 * The largest packet type ID that is looked up by array index.
+	 * </p>
+	 */
+	public static final int MAX_DENSE_TYPE = 4095;
+	private static final Protocol EMPTY = new Protocol(Map.of());
+
+	private final Map<Class<?>, PacketType<?>> byClass;
+	private final PacketType<?>[] denseTypes;
+	private final Map<Integer, PacketType<?>> sparseTypes;
+	private final ClassValue<PacketType<?>> dispatch = new ClassValue<>() {
+		@Override
+		protected PacketType<?> computeValue(Class<?> clazz) {
+			return findPacketType(clazz);
+		}
+	};
+
+	private Protocol(Map<Class<?>, PacketType<?>> byClass) {
+		int maxDense = -1;
+		Map<Integer, PacketType<?>> sparseTypes = new HashMap<>();
+
+		for (PacketType<?> type : byClass.values()) {
+			if (type.type >= 0 && type.type <= MAX_DENSE_TYPE) maxDense = Math.max(maxDense, type.type);
+			else sparseTypes.put(type.type, type);
+		}
+
+		this.byClass = Collections.unmodifiableMap(new LinkedHashMap<>(byClass));
+		this.denseTypes = new PacketType<?>[maxDense + 1];
+		this.sparseTypes = Map.copyOf(sparseTypes);
+
+		for (PacketType<?> type : byClass.values()) {
+			if (type.type >= 0 && type.type <= MAX_DENSE_TYPE) denseTypes[type.type] = type;
+		}
+	}
+
+	/**
+	 * <p>
+	 * Get the protocol without any packet type.
+	 * </p>
+	 * 
+	 * @return The empty protocol.
+	 */
+	public static Protocol empty() {
+		return EMPTY;
+	}
+
+	/**
+	 * <p>
+	 * Create a new builder for building protocol.
+	 * </p>
+	 * 
+	 * @return The protocol builder.
+	 */
+	public static Builder builder() {
+		return new Builder(Map.of());
+	}
+
+	/**
+	 * <p>
+	 * Create a new builder with all packet types from this protocol. This protocol
+	 * is not changed.
+	 * </p>
+	 * 
+	 * @return The protocol builder.
+	 */
+	public Builder toBuilder() {
+		return new Builder(byClass);
+	}
+
+	/**
+	 * <p>
+	 * Get the packet type with numerical ID.
+	 * </p>
+	 * 
+	 * @param type The numerical ID of packet type.
+	 * @return The packet type, or {@code null} if there is no such type.
+	 */
+	public PacketType<?> byType(int type) {
+		if (type >= 0 && type < denseTypes.length) return denseTypes[type];
+		return type >= 0 && type <= MAX_DENSE_TYPE ? null : sparseTypes.get(type);
+	}
+
+	/**
+	 * <p>
+	 * Get the packet type registered for class.
+	 * </p>
+	 * 
+	 * @param <T>   Type of packet.
+	 * @param clazz The class of packet.
+	 * @return The packet type, or {@code null} if the class is not registered.
+	 * @see #resolve(Class)
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> PacketType<T> byClass(Class<T> clazz) {
+		return (PacketType<T>) byClass.get(clazz);
+	}
+
+	/**
+	 * <p>
+	 * Get the packet type for encoding instances of class, which is the packet type
+	 * registered for the class itself or for its nearest registered supertype.
+	 * This allows registering a sealed interface or an abstract class with a
+	 * codec that handles all of its subtypes.
+	 * </p>
+	 * <p>
+	 * The class itself is checked first, then superclasses from the nearest one,
+	 * then interfaces in breadth-first order of declaration. The result is cached
+	 * per class, so this is about as fast as a field read after the first call.
+	 * </p>
+	 * 
+	 * @param clazz The class of packet.
+	 * @return The packet type, or {@code null} if neither the class nor any of its
+	 *         supertypes is registered.
+	 */
+	public PacketType<?> resolve(Class<?> clazz) {
+		return dispatch.get(clazz);
+	}
+
+	private PacketType<?> findPacketType(Class<?> clazz) {
+		PacketType<?> found = byClass.get(clazz);
+		if (found != null || byClass.isEmpty()) return found;
+
+		for (Class<?> c = clazz.getSuperclass(); c != null; c = c.getSuperclass()) {
+			if ((found = byClass.get(c)) != null) return found;
+		}
+
+		Deque<Class<?>> interfaces = new ArrayDeque<>();
+		Set<Class<?>> visited = new HashSet<>();
+		for (Class<?> c = clazz; c != null; c = c.getSuperclass()) interfaces.addAll(Arrays.asList(c.getInterfaces()));
+
+		while (!interfaces.isEmpty()) {
+			Class<?> c = interfaces.poll();
+			if (!visited.add(c)) continue;
+			if ((found = byClass.get(c)) != null) return found;
+			interfaces.addAll(Arrays.asList(c.getInterfaces()));
+		}
+
+		return null;
+	}
+
+	/**
+	 * <p>
+	 * Get all packet types in this protocol, in the order they were registered.
+	 * </p>
+	 * 
+	 * @return The packet types.
+	 */
+	public Collection<PacketType<?>> packetTypes() {
+		return byClass.values();
+	}
+
+	@Override
+	public String toString() {
+		return "Protocol[%d packet types]".formatted(byClass.size());
+	}
+
+	/**
+	 * <p>
+	 * A registered packet type.
+	 * </p>
+	 * 
+	 * @param <T>     Type of packet.
+	 * @param type    The numerical ID of packet type.
+	 * @param clazz   The class of packet.
+	 * @param encoder The packet encoder.
+	 * @param decoder The packet decoder.
+	 * @param key     The key extractor for ordering requests, or {@code null} if
+	 *                requests of this type have no ordering.
+	 * @see Builder#key(Class, Function)
+	 */
+	public static record PacketType<T>(int type, Class<T> clazz, BufferEncoder<T> encoder, BufferDecoder<T> decoder, Function<? super T, ?> key) {
+		public PacketType {
+			Objects.requireNonNull(clazz, "'clazz' is null");
+			Objects.requireNonNull(encoder, "'encoder' is null");
+			Objects.requireNonNull(decoder, "'decoder' is null");
+		}
+
+		public PacketType(int type, Class<T> clazz, BufferEncoder<T> encoder, BufferDecoder<T> decoder) {
+			this(type, clazz, encoder, decoder, null);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Builder for {@link Protocol}.
+	 * </p>
+	 */
+	public static final class Builder {
+		private final Map<Class<?>, PacketType<?>> byClass;
+		private final Map<Integer, PacketType<?>> byType = new HashMap<>();
+
+		private Builder(Map<Class<?>, PacketType<?>> byClass) {
+			this.byClass = new LinkedHashMap<>(byClass);
+			for (PacketType<?> type : byClass.values()) byType.put(type.type, type);
+		}
+
+		/**
+		 * <p>
+		 * Register a new packet type. The class can also be an interface or an
+		 * abstract class, in which case instances of its subtypes are encoded with
+		 * this packet type (see {@link Protocol#resolve(Class)}).
+		 * </p>
+		 * 
+		 * @param <T>     Type of packet.
+		 * @param type    Numerical ID of the packet type. Must be unique for each
+		 *                type.
+		 * @param clazz   The class of packet.
+		 * @param encoder The packet encoder.
+		 * @param decoder The packet decoder.
+		 * @return this builder.
+		 * @throws IllegalArgumentException If class or type ID is already
+		 *                                  registered.
+		 */
+		public <T> Builder register(int type, Class<T> clazz, BufferEncoder<T> encoder, BufferDecoder<T> decoder) {
+			PacketType<T> packetType = new PacketType<>(type, clazz, encoder, decoder);
+			if (byClass.containsKey(clazz))
+				throw new IllegalArgumentException("Class already registered: %s".formatted(clazz));
+			if (byType.containsKey(type))
+				throw new IllegalArgumentException("Type ID already registered: %d (0x%02x)".formatted(type, type));
+			byClass.put(clazz, packetType);
+			byType.put(type, packetType);
+			return this;
+		}
+
+		/**
+		 * <p>
+		 * Register a new packet type using codec.
+		 * </p>
+		 * 
+		 * @param <T>   Type of packet.
+		 * @param type  Numerical ID of the packet type. Must be unique for each type.
+		 * @param clazz The class of packet.
+		 * @param codec The codec of packet.
+		 * @return this builder.
+		 * @throws IllegalArgumentException If class or type ID is already
+		 *                                  registered.
+		 */
+		public <T> Builder register(int type, Class<T> clazz, BufferCodec<T> codec) {
+			Objects.requireNonNull(codec, "'codec' is null");
+			return register(type, clazz, codec, codec);
+		}
+
+		/**
+		 * <p>
+		 * Declare the key of requests with registered packet type. When requests are
+		 * handled on executor (see
+		 * {@link TransporterConnection#setRequestExecutor(java.util.concurrent.Executor)}),
+		 * requests with equal keys are handled one after another in the order they
+		 * were received, while requests with different keys are handled
+		 * concurrently. Requests without key are not ordered.
+		 * </p>
+		 * {@snippet :
+		 * Protocol.builder()
+		 * 	.register(0x00, MoveEntity.class, MoveEntity.CODEC)
+		 * 	.key(MoveEntity.class, MoveEntity::entityId)
+		 * 	.build();
+		 * }
+		 * 
+		 * @param <T>   Type of packet.
+		 * @param clazz The registered class of packet.
+		 * @param key   The key extractor.
+		 * @return this builder.
+		 * @throws IllegalArgumentException If the class is not registered.
+		 */
+		@SuppressWarnings("unchecked")
+		public <T> Builder key(Class<T> clazz, Function<? super T, ?> key) {
+			Objects.requireNonNull(clazz, "'clazz' is null");
+			Objects.requireNonNull(key, "'key' is null");
+			PacketType<T> old = (PacketType<T>) byClass.get(clazz);
+			if (old == null) throw new IllegalArgumentException("Class not registered: %s".formatted(clazz));
+			PacketType<T> packetType = new PacketType<>(old.type, clazz, old.encoder, old.decoder, key);
+			byClass.put(clazz, packetType);
+			byType.put(old.type, packetType);
+			return this;
+		}
+
+		/**
+		 * <p>
+		 * Build an immutable protocol from registered packet types. The builder can
+		 * still be used after this.
+		 * </p>
+		 * 
+		 * @return The protocol.
+		 */
+		public Protocol build() {
+			return byClass.isEmpty() ? EMPTY : new Protocol(byClass);
+		}
+	}
+}
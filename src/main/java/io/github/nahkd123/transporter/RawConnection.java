@@ -24,13 +24,26 @@
  */
 package io.github.nahkd123.transporter;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ByteChannel;
+import java.nio.channels.FileChannel;
 import java.nio.channels.Selector;
+import java.util.Arrays;
+import java.util.Objects;
 import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import io.github.nahkd123.transporter.serialize.BufferEncoder;
 
 /**
  * <p>
@@ -73,9 +86,28 @@ import java.util.function.Consumer;
  * }
  * }
  * <p>
+ * To avoid waiting for the next iteration when a packet is queued from another
+ * thread, set a wakeup hook with {@link #setWakeupHook(Runnable)} that wakes up
+ * the networking thread.
+ * </p>
+ * {@snippet :
+ * Thread networkingThread = Thread.currentThread();
+ * conn.setWakeupHook(() -> LockSupport.unpark(networkingThread));
+ * }
+ * <p>
+ * Reading and writing touch separate state, so {@link #channelRead(ByteChannel)}
+ * and {@link #channelWrite(ByteChannel)} may also be called from two different
+ * threads at the same time, as long as each direction stays on its own thread
+ * (see {@link DuplexDriver}). Close state is shared between both directions and
+ * {@link #onClose(boolean, Throwable)} is called exactly once, by whichever
+ * thread closes the connection first.
+ * </p>
+ * <p>
  * If you are using {@link Selector} for multiplexing read/write (usually for
- * non-blocking IO), you can also use {@link #channelRead(ByteChannel)} and
- * {@link #channelWrite(ByteChannel)} based on selection key's state.
+ * non-blocking IO), you may want to use {@link TransporterServer}, which drives
+ * many connections on a fixed number of threads. You can also use
+ * {@link #channelRead(ByteChannel)} and {@link #channelWrite(ByteChannel)} based
+ * on selection key's state.
  * </p>
  * {@snippet :
  * Selector selector;
@@ -93,7 +125,9 @@ import java.util.function.Consumer;
  * <b>Packet header format</b>: The packet data is encapsulated by packet
  * header, following the header format:
  * <ol>
- * <li><b>Packet mode (u16)</b>: This is the ordinal of {@link PacketMode};</li>
+ * <li><b>Packet mode (u16)</b>: The lower 8 bits is the ordinal of
+ * {@link PacketMode}, and bit 8 is set if packet body is compressed (see
+ * {@link #setCompression(int, byte[])});</li>
  * <li><b>Packet body size (u16)</b>: This is the number of bytes in packet
  * body. Up to 65536 bytes for packet body;</li>
  * <li><b>Packet type ID (u32)</b>: This is the numerical ID of packet type. The
@@ -105,32 +139,96 @@ import java.util.function.Consumer;
  * request ID of request packet that the response is replying to.</li>
  * </ol>
  * Followed by packet header is packet body, whose size is determined in packet
- * header.
+ * header. For small packets, a more compact header format can be used instead;
+ * see {@link #setHeaderFormat(HeaderFormat)}.
  * </p>
  * 
  * @see #createConnectionBuffer()
  * @see #onRawPacket(PacketMode, int, int, ByteBuffer)
  * @see #onClose(boolean, Throwable)
  * @see #queueRawPacketWrite(PacketMode, int, int, Consumer)
+ * @see TransporterServer
  */
 public abstract class RawConnection implements AutoCloseable {
-	private static final int STATE_HEADER = 0;
-	private static final int STATE_BODY = 1;
 	private static final int HEADER_SIZE = 2 + 2 + 4 + 4; // mode + size + type + reqId
+	private static final int MAX_BODY_SIZE = 0xFFFF;
+	private static final int MODE_MASK = 0xFF;
+	private static final int FLAG_COMPRESSED = 0x100;
+	private static final int MAX_COMPACT_SIZE_FIELD = 3; // varint of MAX_BODY_SIZE
+	private static final int COMPACT_MODE_MASK = 0x0F;
+	private static final int COMPACT_FLAG_COMPRESSED = 0x10;
+
+	static final int WRITE_QUEUE_CAPACITY = 256;
+	@SuppressWarnings("unchecked")
+	private static final BufferEncoder<Object> WRITER_ENCODER = (writer, buffer) -> ((Consumer<ByteBuffer>) writer).accept(buffer);
 
-	private record Outgoing(PacketMode mode, int type, int reqId, Consumer<ByteBuffer> writer) {
+	private static final BufferEncoder<Object> FILE_ENCODER = (region, buffer) -> {
+		throw new IllegalStateException("File region must be transferred to channel");
+	};
+	private static final int LANE_OF_MODE = -1;
+	private static final long UNWRITABLE = 1L;
+
+	private record WriteWaiter(int lane, OutgoingQueue.Entry entry, CompletableFuture<Void> task) {
+	}
+
+	private record WriteLanes(WriteScheduler scheduler, OutgoingQueue[] queues) {
+	}
+
+	private record FileRegion(FileChannel file, long position, int count) {
+	}
+
+	/**
+	 * <p>
+	 * Receives outgoing packets that are taken from write queue without being
+	 * encoded.
+	 * </p>
+	 * 
+	 * @see RawConnection#transferWrites(PacketSink)
+	 */
+	interface PacketSink {
+		void accept(PacketMode mode, int type, int reqId, BufferEncoder<Object> encoder, Object value) throws IOException;
 	}
 
-	private boolean closed = false;
+	private volatile boolean closed = false;
+	private final AtomicBoolean closeHandled = new AtomicBoolean();
+	private volatile HeaderFormat headerFormat = HeaderFormat.FIXED;
 	private ByteBuffer readBuffer = null;
-	private int state;
-	private PacketMode mode;
-	private int size;
-	private int type;
-	private int reqId;
+	private long framesRead = 0L;
+	private long readCalls = 0L;
+	private Inflater inflater = null;
+	private ByteBuffer inflateBuffer = null;
+	private volatile boolean readBatching = false;
+	private PacketBatch readBatch = null;
 
 	private ByteBuffer writeBuffer = null;
-	private Queue<Outgoing> writeQueue = null;
+	private volatile WriteLanes writeLanes = newWriteLanes(WriteScheduler.fifo());
+	private int selectedLane = 0;
+	// Number of packets waiting to be written, shifted left by 1, and unwritable
+	// flag in bit 0. Both are updated together so writability always follows the
+	// count it was decided from.
+	private final AtomicLong writeState = new AtomicLong();
+	private volatile Runnable wakeupHook = null;
+	private volatile int lowWatermark = 0;
+	private volatile int highWatermark = Integer.MAX_VALUE;
+	private final Object writabilityLock = new Object();
+	private boolean notifiedWritable = true;
+	private final Queue<WriteWaiter> writeWaiters = new ConcurrentLinkedQueue<>();
+	private FileRegion fileRegion = null;
+	private long fileRegionWritten = 0L;
+	private volatile boolean writeBatching = false;
+	private volatile FlushPolicy flushPolicy = FlushPolicy.immediate();
+	private final AtomicLong flushRequests = new AtomicLong();
+	private long flushesHandled = 0L;
+	private boolean holding = false;
+	private long heldSince = 0L;
+	private boolean writeBufferFull = false;
+	private volatile int compressionThreshold = -1;
+	private volatile byte[] compressionDictionary = null;
+	private Deflater deflater = null;
+	private ByteBuffer deflateBuffer = null;
+	private long framesCompressed = 0L;
+	private long framesWritten = 0L;
+	private long writeCalls = 0L;
 
 	/**
 	 * <p>
@@ -139,7 +237,8 @@ public abstract class RawConnection implements AutoCloseable {
 	 * bytes per packet and byte order here. Read buffer and write buffer are not
 	 * the same. The maximum number of bytes a single packet body can hold is 65536,
 	 * which means the size of connection buffers should be 65548 (12 bytes header +
-	 * 64k body). Any buffer with size larger than this will have its extra unused.
+	 * 64k body). Any extra space in larger buffers is used for reading or writing
+	 * multiple packets at once.
 	 * </p>
 	 * {@snippet :
 	 * &#64;Override
@@ -147,11 +246,35 @@ public abstract class RawConnection implements AutoCloseable {
 	 * 	return ByteBuffer.allocate(16384).byteOrder(ByteOrder.LITTLE_ENDIAN);
 	 * }
 	 * }
+	 * <p>
+	 * This method may be called again after a buffer is released with
+	 * {@link #releaseConnectionBuffer(ByteBuffer)}.
+	 * </p>
 	 * 
 	 * @return The connection buffer.
+	 * @see BufferPool
 	 */
 	protected abstract ByteBuffer createConnectionBuffer();
 
+	/**
+	 * <p>
+	 * Called when a connection buffer is no longer holding any data, which happens
+	 * when all received data have been processed or all outgoing data have been
+	 * written to channel. The implementation may give the buffer back to where it
+	 * was created, like {@link BufferPool}, and return {@code true}; in that case
+	 * the connection will forget the buffer and call
+	 * {@link #createConnectionBuffer()} again when it needs one. By default, this
+	 * method returns {@code false} and the connection keeps its buffers for its
+	 * lifetime.
+	 * </p>
+	 * 
+	 * @param buffer The connection buffer.
+	 * @return Whether the buffer has been released.
+	 */
+	protected boolean releaseConnectionBuffer(ByteBuffer buffer) {
+		return false;
+	}
+
 	/**
 	 * <p>
 	 * Called when connection is closed, whether it is remotely closed (end of
@@ -159,6 +282,10 @@ public abstract class RawConnection implements AutoCloseable {
 	 * case of directly closed, you might have to close the underlying channel as
 	 * well.
 	 * </p>
+	 * <p>
+	 * This method is called only once, on the thread that closes the connection
+	 * first. {@link #isClosed()} already returns {@code true} at this point.
+	 * </p>
 	 * 
 	 * @param remote Whether the connection is closed remotely.
 	 * @param error  Error if connection is closed with error.
@@ -183,6 +310,44 @@ public abstract class RawConnection implements AutoCloseable {
 	 */
 	protected abstract void onRawPacket(PacketMode mode, int type, int reqId, ByteBuffer buffer);
 
+	/**
+	 * <p>
+	 * Called with all packets parsed from read buffer in a single pass when read
+	 * batching is enabled (see {@link #setReadBatching(boolean)}). The default
+	 * implementation passes each packet to
+	 * {@link #onRawPacket(PacketMode, int, int, ByteBuffer)} in order.
+	 * </p>
+	 * <p>
+	 * Override this to amortize work across many packets, like taking a lock once
+	 * or handing the whole batch over to another thread. Like the buffer in
+	 * {@link #onRawPacket(PacketMode, int, int, ByteBuffer)}, the batch is reused
+	 * after this method returns, so the implementation must not hold it.
+	 * </p>
+	 * 
+	 * @param batch The packets, in the order they were received.
+	 */
+	protected void onRawPacketBatch(PacketBatch batch) {
+		for (int i = 0; i < batch.size(); i++) {
+			if (closed) return;
+			onRawPacket(batch.mode(i), batch.type(i), batch.reqId(i), batch.buffer(i));
+		}
+	}
+
+	/**
+	 * <p>
+	 * Called when writability of this connection changed. The connection becomes
+	 * unwritable when the number of packets waiting to be written reaches high
+	 * watermark, and becomes writable again when it drops to low watermark. This
+	 * may be called from any thread that queues or writes packets, but never
+	 * concurrently, and calls always alternate between {@code false} and
+	 * {@code true}.
+	 * </p>
+	 * 
+	 * @param writable Whether the connection is writable.
+	 * @see #setWriteWatermarks(int, int)
+	 */
+	protected void onWritabilityChanged(boolean writable) {}
+
 	/**
 	 * <p>
 	 * Queue a new outgoing raw packet to be written upon calling
@@ -206,8 +371,264 @@ public abstract class RawConnection implements AutoCloseable {
 	 *               channel.
 	 */
 	protected void queueRawPacketWrite(PacketMode mode, int type, int reqId, Consumer<ByteBuffer> writer) {
+		queueRawPacketWrite(mode, type, reqId, WRITER_ENCODER, writer);
+	}
+
+	/**
+	 * <p>
+	 * Queue a new outgoing raw packet to specific outgoing lane, instead of the
+	 * lane chosen by write scheduler based on packet mode. Packets in the same lane
+	 * are written in the order they were queued.
+	 * </p>
+	 * 
+	 * @param mode   The packet mode.
+	 * @param type   The numerical ID of packet type.
+	 * @param reqId  The peer's request ID.
+	 * @param lane   The outgoing lane, between 0 and number of lanes of current
+	 *               write scheduler (exclusive).
+	 * @param writer The callback that will be called in
+	 *               {@link #channelWrite(ByteChannel)} when writing packets to
+	 *               channel.
+	 * @see #setWriteScheduler(WriteScheduler)
+	 */
+	protected void queueRawPacketWrite(PacketMode mode, int type, int reqId, int lane, Consumer<ByteBuffer> writer) {
+		queueRawPacketWrite(mode, type, reqId, lane, WRITER_ENCODER, writer);
+	}
+
+	/**
+	 * <p>
+	 * Queue a new outgoing raw packet, whose body will be written by encoding the
+	 * value with encoder upon calling {@link #channelWrite(ByteChannel)}. Unlike
+	 * {@link #queueRawPacketWrite(PacketMode, int, int, Consumer)}, this method
+	 * does not need a capturing lambda for each packet, and queueing the packet
+	 * does not allocate in most cases.
+	 * </p>
+	 * 
+	 * @param <T>     Type of value.
+	 * @param mode    The packet mode.
+	 * @param type    The numerical ID of packet type.
+	 * @param reqId   The peer's request ID.
+	 * @param encoder The encoder that will encode value to packet body.
+	 * @param value   The value to encode.
+	 */
+	@SuppressWarnings("unchecked")
+	protected <T> void queueRawPacketWrite(PacketMode mode, int type, int reqId, BufferEncoder<T> encoder, T value) {
+		if (closed) return;
+		enqueue(LANE_OF_MODE, mode, type, reqId, (BufferEncoder<Object>) encoder, value);
+	}
+
+	/**
+	 * <p>
+	 * Queue a new outgoing raw packet with encoder to specific outgoing lane.
+	 * </p>
+	 * 
+	 * @param <T>     Type of value.
+	 * @param mode    The packet mode.
+	 * @param type    The numerical ID of packet type.
+	 * @param reqId   The peer's request ID.
+	 * @param lane    The outgoing lane, between 0 and number of lanes of current
+	 *                write scheduler (exclusive).
+	 * @param encoder The encoder that will encode value to packet body.
+	 * @param value   The value to encode.
+	 * @see #queueRawPacketWrite(PacketMode, int, int, int, Consumer)
+	 */
+	@SuppressWarnings("unchecked")
+	protected <T> void queueRawPacketWrite(PacketMode mode, int type, int reqId, int lane, BufferEncoder<T> encoder, T value) {
+		int lanes = writeLanes.queues.length;
+		if (lane < 0 || lane >= lanes)
+			throw new IllegalArgumentException("Lane %d is out of range [0; %d)".formatted(lane, lanes));
+		if (closed) return;
+		enqueue(lane, mode, type, reqId, (BufferEncoder<Object>) encoder, value);
+	}
+
+	/**
+	 * <p>
+	 * Queue a new outgoing raw packet, whose body is a region of file. The body
+	 * will be transferred from file to channel with
+	 * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}
+	 * upon calling {@link #channelWrite(ByteChannel)}, which allows the operating
+	 * system to send file content without copying it to Java heap or connection
+	 * buffer. The file channel will not be closed by this connection, and the file
+	 * region must not be modified until the packet is written.
+	 * </p>
+	 * {@snippet :
+	 * FileChannel file = FileChannel.open(path, StandardOpenOption.READ);
+	 * queueRawFileWrite(PacketMode.RESPONSE_SUCCEED, BLOB_CHUNK, reqId, file, offset, 65535);
+	 * }
+	 * <p>
+	 * Just like other packets, the size of packet body is limited to 65535 bytes,
+	 * and the peer must be able to fit the entire packet in its connection buffer.
+	 * </p>
+	 * 
+	 * @param mode     The packet mode.
+	 * @param type     The numerical ID of packet type.
+	 * @param reqId    The peer's request ID.
+	 * @param file     The file to transfer packet body from.
+	 * @param position The position of file region.
+	 * @param count    The number of bytes of file region, which is the size of
+	 *                 packet body.
+	 */
+	protected void queueRawFileWrite(PacketMode mode, int type, int reqId, FileChannel file, long position, int count) {
+		Objects.requireNonNull(file, "'file' is null");
+		if (position < 0L) throw new IllegalArgumentException("Negative file position: %d".formatted(position));
+		if (count < 0 || count > MAX_BODY_SIZE)
+			throw new IllegalArgumentException("File region size %d is out of range [0; %d]".formatted(count, MAX_BODY_SIZE));
 		if (closed) return;
-		writeQueue.add(new Outgoing(mode, type, reqId, writer));
+		enqueue(LANE_OF_MODE, mode, type, reqId, FILE_ENCODER, new FileRegion(file, position, count));
+	}
+
+	/**
+	 * <p>
+	 * Queue a new outgoing raw packet once this connection is writable. If the
+	 * connection is writable, the packet is queued immediately; otherwise the packet
+	 * will be queued when the number of packets waiting to be written drops to low
+	 * watermark. This allows producers to wait for the returned task instead of
+	 * queueing packets without bounds.
+	 * </p>
+	 * 
+	 * @param mode   The packet mode.
+	 * @param type   The numerical ID of packet type.
+	 * @param reqId  The peer's request ID.
+	 * @param writer The callback that will be called in
+	 *               {@link #channelWrite(ByteChannel)} when writing packets to
+	 *               channel.
+	 * @return The task that will be completed when the packet is queued, or failed
+	 *         if the connection is closed before that.
+	 * @see #queueRawPacketWrite(PacketMode, int, int, Consumer)
+	 * @see #setWriteWatermarks(int, int)
+	 */
+	protected CompletableFuture<Void> queueRawPacketWriteAsync(PacketMode mode, int type, int reqId, Consumer<ByteBuffer> writer) {
+		return queueRawPacketWriteAsync(mode, type, reqId, WRITER_ENCODER, writer);
+	}
+
+	/**
+	 * <p>
+	 * Queue a new outgoing raw packet with encoder once this connection is
+	 * writable.
+	 * </p>
+	 * 
+	 * @param <T>     Type of value.
+	 * @param mode    The packet mode.
+	 * @param type    The numerical ID of packet type.
+	 * @param reqId   The peer's request ID.
+	 * @param encoder The encoder that will encode value to packet body.
+	 * @param value   The value to encode.
+	 * @return The task that will be completed when the packet is queued, or failed
+	 *         if the connection is closed before that.
+	 * @see #queueRawPacketWriteAsync(PacketMode, int, int, Consumer)
+	 */
+	@SuppressWarnings("unchecked")
+	protected <T> CompletableFuture<Void> queueRawPacketWriteAsync(PacketMode mode, int type, int reqId, BufferEncoder<T> encoder, T value) {
+		if (closed) return CompletableFuture.failedFuture(new IOException("Connection closed"));
+
+		if (isWritable() && writeWaiters.isEmpty()) {
+			enqueue(LANE_OF_MODE, mode, type, reqId, (BufferEncoder<Object>) encoder, value);
+			return CompletableFuture.completedFuture(null);
+		}
+
+		CompletableFuture<Void> task = new CompletableFuture<>();
+		OutgoingQueue.Entry entry = new OutgoingQueue.Entry(mode, type, reqId, (BufferEncoder<Object>) encoder, value);
+		writeWaiters.add(new WriteWaiter(LANE_OF_MODE, entry, task));
+		// Waiters are only drained by the writing thread, so that they are queued in
+		// order. Connection may become writable before the waiter is added, in which
+		// case nothing else would wake the writing thread up.
+		if (isWritable()) wakeup();
+		if (closed) abortWriteWaiters();
+		return task;
+	}
+
+	private void enqueue(int lane, PacketMode mode, int type, int reqId, BufferEncoder<Object> encoder, Object value) {
+		// Count first so the consumer never sees more packets than counted
+		boolean wasEmpty = countEnqueue();
+		laneQueue(lane, mode).offer(mode, type, reqId, encoder, value);
+		if (wasEmpty) wakeup();
+	}
+
+	private void enqueue(int lane, OutgoingQueue.Entry entry) {
+		boolean wasEmpty = countEnqueue();
+		laneQueue(lane, entry.mode()).offer(entry);
+		if (wasEmpty) wakeup();
+	}
+
+	private OutgoingQueue laneQueue(int lane, PacketMode mode) {
+		WriteLanes lanes = writeLanes;
+		return lanes.queues[lane == LANE_OF_MODE ? lanes.scheduler.laneOf(mode) : lane];
+	}
+
+	/**
+	 * <p>
+	 * Count a packet that is about to be queued.
+	 * </p>
+	 * 
+	 * @return Whether there were no packets waiting to be written.
+	 */
+	private boolean countEnqueue() {
+		while (true) {
+			long state = writeState.get();
+			long count = (state >>> 1) + 1L;
+			boolean unwritable = (state & UNWRITABLE) != 0L || count >= highWatermark;
+			long next = count << 1 | (unwritable ? UNWRITABLE : 0L);
+			if (!writeState.compareAndSet(state, next)) continue;
+			if ((state & UNWRITABLE) == 0L && unwritable) notifyWritability();
+			return count == 1L;
+		}
+	}
+
+	private void dequeue(OutgoingQueue queue) {
+		queue.remove();
+		WriteLanes lanes = writeLanes;
+		if (lanes.queues.length > 1) lanes.scheduler.onDequeued(selectedLane);
+
+		while (true) {
+			long state = writeState.get();
+			long count = (state >>> 1) - 1L;
+			boolean unwritable = (state & UNWRITABLE) != 0L && count > lowWatermark;
+			long next = count << 1 | (unwritable ? UNWRITABLE : 0L);
+			if (!writeState.compareAndSet(state, next)) continue;
+			if ((state & UNWRITABLE) != 0L && !unwritable) notifyWritability();
+			break;
+		}
+
+		drainWriteWaiters();
+	}
+
+	private void notifyWritability() {
+		// The thread that made the connection unwritable may be preempted until after
+		// the writing thread made it writable again, so the callback always reports
+		// the latest state instead of the transition each thread made
+		synchronized (writabilityLock) {
+			boolean writable = isWritable();
+			if (writable == notifiedWritable) return;
+			notifiedWritable = writable;
+			onWritabilityChanged(writable);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Queue packets from {@link #queueRawPacketWriteAsync(PacketMode, int, int, Consumer)}
+	 * while the connection is writable. Must be called from the thread that
+	 * writes this connection.
+	 * </p>
+	 */
+	private void drainWriteWaiters() {
+		WriteWaiter waiter;
+
+		while (!closed && !writeWaiters.isEmpty() && isWritable() && (waiter = writeWaiters.poll()) != null) {
+			enqueue(waiter.lane, waiter.entry);
+			waiter.task.complete(null);
+		}
+	}
+
+	private void abortWriteWaiters() {
+		WriteWaiter waiter;
+		while ((waiter = writeWaiters.poll()) != null)
+			waiter.task.completeExceptionally(new IOException("Connection closed"));
+	}
+
+	private void wakeup() {
+		Runnable hook = wakeupHook;
+		if (hook != null) hook.run();
 	}
 
 	/**
@@ -216,61 +637,255 @@ public abstract class RawConnection implements AutoCloseable {
 	 * connection is marked as closed or no bytes read from channel. The latter
 	 * requires the channel to be in non-blocking mode.
 	 * </p>
+	 * <p>
+	 * Each read call fills as much of the read buffer as the channel can provide,
+	 * then all complete packets in the buffer are passed to
+	 * {@link #onRawPacket(PacketMode, int, int, ByteBuffer)}. Partial packet at the
+	 * end of buffer will be kept and resumed on next read.
+	 * </p>
 	 * 
 	 * @param channel The byte channel to read.
 	 * @return If this method actually read something from channel.
 	 * @throws IOException If channel is closed with error.
 	 */
 	public boolean channelRead(ByteChannel channel) throws IOException {
-		if (closed) return false;
-		ensurePrepared();
+		if (closed) {
+			recycleReadBuffer();
+			return false;
+		}
+
+		if (readBuffer == null) readBuffer = newConnectionBuffer().clear();
 		boolean didSomething = false;
 
 		try {
 			while (!closed) {
-				while (readBuffer.hasRemaining()) {
-					int bytesRead = channel.read(readBuffer);
-					if (bytesRead == 0) return didSomething;
-					if (bytesRead == -1) {
-						closed = true;
-						onClose(true, null);
-						return true;
-					}
+				int bytesRead = channel.read(readBuffer);
+				if (bytesRead == 0) return didSomething;
+				if (bytesRead == -1) {
+					closeWith(true, null);
+					return true;
 				}
 
-				readBuffer.flip();
 				didSomething = true;
-
-				switch (state) {
-				case STATE_HEADER:
-					mode = PacketMode.fromId(readBuffer.getShort() & 0xFFFF);
-					size = readBuffer.getShort() & 0xFFFF;
-					type = readBuffer.getInt();
-					reqId = readBuffer.getInt();
-					state = STATE_BODY;
-					readBuffer.limit(HEADER_SIZE + size);
-					break;
-				case STATE_BODY:
-					readBuffer.position(HEADER_SIZE);
-					onRawPacket(mode, type, reqId, readBuffer);
-					state = STATE_HEADER;
-					readBuffer.clear().limit(HEADER_SIZE);
-					break;
-				}
+				processReadBuffer();
 			}
 
 			return didSomething;
 		} catch (Throwable t) {
-			closed = true;
-			onClose(false, t);
+			closeWith(false, t);
+			throw t instanceof IOException ioe ? ioe : new IOException("Error while reading from channel", t);
+		} finally {
+			recycleReadBuffer();
+		}
+	}
+
+	private void processReadBuffer() throws IOException {
+		readCalls++;
+		readBuffer.flip();
+
+		if (readBatching) {
+			if (readBatch == null) readBatch = new PacketBatch();
+			parseReadBuffer(readBatch);
+			if (readBatch.size() != 0) deliverReadBatch();
+		} else {
+			parseReadBuffer(null);
+		}
+
+		readBuffer.compact();
+	}
+
+	private void deliverReadBatch() {
+		int position = readBuffer.position();
+		int limit = readBuffer.limit();
+
+		try {
+			if (!closed) onRawPacketBatch(readBatch);
+		} finally {
+			readBatch.clear();
+			readBuffer.limit(limit).position(position);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Get the read buffer for completion based channels, which reads into the
+	 * buffer and then calls {@link #endRead(int)}. The buffer must not be touched
+	 * after that.
+	 * </p>
+	 * 
+	 * @return The read buffer, in write mode.
+	 */
+	ByteBuffer beginRead() {
+		if (readBuffer == null) readBuffer = newConnectionBuffer().clear();
+		return readBuffer;
+	}
+
+	/**
+	 * <p>
+	 * Process the bytes that were read into buffer from {@link #beginRead()}.
+	 * </p>
+	 * 
+	 * @param bytesRead The number of bytes read, or -1 for end of stream.
+	 * @throws IOException If packets can't be processed. The connection is closed
+	 *                     with error.
+	 */
+	void endRead(int bytesRead) throws IOException {
+		try {
+			if (bytesRead == -1) closeFromTransport(true, null);
+			else if (!closed) processReadBuffer();
+		} catch (Throwable t) {
+			closeWith(false, t);
 			throw t instanceof IOException ioe ? ioe : new IOException("Error while reading from channel", t);
+		} finally {
+			recycleReadBuffer();
+		}
+	}
+
+	/**
+	 * <p>
+	 * Close this connection with error from read operation started with
+	 * {@link #beginRead()}.
+	 * </p>
+	 */
+	void readFailed(Throwable error) {
+		closeFromTransport(false, error);
+		recycleReadBuffer();
+	}
+
+	private void parseReadBuffer(PacketBatch batch) throws IOException {
+		HeaderFormat format = headerFormat;
+
+		while (!closed && readBuffer.hasRemaining()) {
+			int start = readBuffer.position();
+			int headerSize, modeField, size, type, reqId;
+			boolean compressed;
+
+			if (format == HeaderFormat.FIXED) {
+				if (readBuffer.remaining() < HEADER_SIZE) return;
+				modeField = readBuffer.getShort(start) & 0xFFFF;
+				if ((modeField & ~(MODE_MASK | FLAG_COMPRESSED)) != 0)
+					throw new IOException("Unknown frame flags 0x%04x".formatted(modeField & ~MODE_MASK));
+				compressed = (modeField & FLAG_COMPRESSED) != 0;
+				size = readBuffer.getShort(start + 2) & 0xFFFF;
+				type = readBuffer.getInt(start + 4);
+				reqId = readBuffer.getInt(start + 8);
+				headerSize = HEADER_SIZE;
+			} else {
+				modeField = readBuffer.get(start) & 0xFF;
+				if ((modeField & ~(COMPACT_MODE_MASK | COMPACT_FLAG_COMPRESSED)) != 0)
+					throw new IOException("Unknown frame flags 0x%02x".formatted(modeField & ~COMPACT_MODE_MASK));
+				compressed = (modeField & COMPACT_FLAG_COMPRESSED) != 0;
+				int index = start + 1;
+				long field;
+
+				if ((field = getVarInt(readBuffer, index)) == -1L) return;
+				size = (int) field;
+				index += (int) (field >>> 32);
+				if (size > MAX_BODY_SIZE) throw new IOException("Packet body size %d is too large".formatted(size));
+				if ((field = getVarInt(readBuffer, index)) == -1L) return;
+				type = (int) field;
+				index += (int) (field >>> 32);
+
+				if ((modeField & COMPACT_MODE_MASK) == PacketMode.NOTIFY.ordinal()) {
+					reqId = 0;
+				} else {
+					if ((field = getVarInt(readBuffer, index)) == -1L) return;
+					reqId = (int) field;
+					index += (int) (field >>> 32);
+				}
+
+				headerSize = index - start;
+			}
+
+			if (headerSize + size > readBuffer.capacity()) throw new IOException(
+				"Packet body size %d exceeds connection buffer capacity %d".formatted(size, readBuffer.capacity()));
+			if (readBuffer.remaining() < headerSize + size) return;
+
+			PacketMode mode = PacketMode.fromId(modeField & (format == HeaderFormat.FIXED ? MODE_MASK : COMPACT_MODE_MASK));
+			int limit = readBuffer.limit();
+			int end = start + headerSize + size;
+
+			readBuffer.limit(end).position(start + headerSize);
+			framesRead++;
+
+			if (batch == null) onRawPacket(mode, type, reqId, compressed ? inflate(readBuffer) : readBuffer);
+			else if (compressed) batch.addCopy(mode, type, reqId, inflate(readBuffer));
+			else batch.add(mode, type, reqId, readBuffer, start + headerSize, size);
+
+			readBuffer.limit(limit).position(end);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Read unsigned LEB128 integer up to 32 bits at index.
+	 * </p>
+	 * 
+	 * @return The value in lower 32 bits and number of bytes in upper 32 bits, or
+	 *         -1 if buffer ends before the last byte.
+	 */
+	private static long getVarInt(ByteBuffer buffer, int index) throws IOException {
+		long value = 0L;
+
+		for (int i = 0; i < 5; i++) {
+			if (index + i >= buffer.limit()) return -1L;
+			int b = buffer.get(index + i);
+			value |= (long) (b & 0x7F) << (i * 7);
+			if ((b & 0x80) == 0) {
+				if (value > 0xFFFFFFFFL) break;
+				return value | ((long) (i + 1) << 32);
+			}
+		}
+
+		throw new IOException("Malformed variable length integer in frame header");
+	}
+
+	private static int putVarInt(ByteBuffer buffer, int index, int value) {
+		int i = 0;
+
+		while ((value & ~0x7F) != 0) {
+			buffer.put(index + i++, (byte) (value & 0x7F | 0x80));
+			value >>>= 7;
+		}
+
+		buffer.put(index + i++, (byte) value);
+		return i;
+	}
+
+	private ByteBuffer inflate(ByteBuffer body) throws IOException {
+		if (inflater == null) {
+			inflater = new Inflater();
+			inflateBuffer = ByteBuffer.allocate(MAX_BODY_SIZE);
 		}
+
+		inflater.reset();
+		inflater.setInput(body);
+		inflateBuffer.clear().order(body.order());
+
+		try {
+			inflater.inflate(inflateBuffer);
+
+			if (inflater.needsDictionary()) {
+				byte[] dictionary = compressionDictionary;
+				if (dictionary == null) throw new IOException("Compressed frame needs a dictionary, but none is set");
+				inflater.setDictionary(dictionary);
+				inflater.inflate(inflateBuffer);
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Malformed compressed frame", e);
+		}
+
+		if (!inflater.finished()) throw new IOException("Decompressed frame exceeds %d bytes".formatted(MAX_BODY_SIZE));
+		return inflateBuffer.flip();
 	}
 
 	/**
 	 * <p>
 	 * Perform writing packets to byte channel until the connection is marked as
-	 * closed, no more outgoing packets or no bytes can be written.
+	 * closed, no more outgoing packets or no bytes can be written. If write
+	 * batching is enabled (see {@link #setWriteBatching(boolean)}), as many queued
+	 * packets as the write buffer can hold will be encoded before writing to
+	 * channel.
 	 * </p>
 	 * 
 	 * @param channel The byte channel to write.
@@ -278,71 +893,820 @@ public abstract class RawConnection implements AutoCloseable {
 	 * @throws IOException If error occurred while writing packets.
 	 */
 	public boolean channelWrite(ByteChannel channel) throws IOException {
-		if (closed) return false;
-		ensurePrepared();
+		if (closed) {
+			recycleWriteBuffer();
+			return false;
+		}
+
+		drainWriteWaiters();
+
+		if (writeBuffer == null) {
+			if (pendingWrites() == 0 && fileRegion == null) return false;
+			writeBuffer = newConnectionBuffer().clear().limit(0);
+		}
+
 		boolean didSomething = false;
 
 		try {
 			while (!closed) {
+				// Nothing from write buffer is written yet, so more packets can be added
+				if (writeBuffer.position() == 0 && fileRegion == null) {
+					if (fillWriteBuffer() != 0) didSomething = true;
+					if (!writeBuffer.hasRemaining() || holdWrites()) return didSomething;
+				}
+
 				while (writeBuffer.hasRemaining()) {
 					int bytesWritten = channel.write(writeBuffer);
 					if (bytesWritten == 0) return didSomething;
+					writeCalls++;
 				}
 
-				Outgoing outgoing = writeQueue.poll();
-				if (outgoing == null) return didSomething;
+				if (fileRegion != null) {
+					if (!transferFileRegion(channel)) return didSomething;
+					didSomething = true;
+				}
 
-				writeBuffer.clear()
-					.putShort(0, (short) outgoing.mode.ordinal())
-					.putInt(4, outgoing.type)
-					.putInt(8, outgoing.reqId)
-					.position(HEADER_SIZE);
-				outgoing.writer.accept(writeBuffer);
-				writeBuffer
-					.putShort(2, (short) (writeBuffer.position() - HEADER_SIZE))
-					.flip();
-				didSomething = true;
+				writeBuffer.clear().limit(0);
 			}
 
 			return didSomething;
 		} catch (Throwable t) {
-			closed = true;
-			onClose(false, t);
+			closeWith(false, t);
 			throw t instanceof IOException ioe ? ioe : new IOException("Error while writing to channel", t);
+		} finally {
+			recycleWriteBuffer();
 		}
 	}
 
-	private void ensurePrepared() {
-		if (readBuffer == null) {
-			readBuffer = createConnectionBuffer();
-			writeBuffer = createConnectionBuffer();
-			if (readBuffer == null || writeBuffer == null)
-				throw new NullPointerException("createConnectionBuffer() returns null");
+	/**
+	 * <p>
+	 * Get the bytes to write for completion based channels, which writes the
+	 * buffer and then calls {@link #endWrite(int)}. The buffer must not be touched
+	 * after that. File regions are copied through write buffer, as they can't be
+	 * transferred to such channels.
+	 * </p>
+	 * 
+	 * @return The write buffer in read mode, or {@code null} if there is nothing to
+	 *         write at the moment.
+	 * @throws IOException If packets can't be encoded. The connection is closed
+	 *                     with error.
+	 */
+	ByteBuffer beginWrite() throws IOException {
+		if (closed) {
+			recycleWriteBuffer();
+			return null;
+		}
+
+		drainWriteWaiters();
 
-			readBuffer.clear().limit(HEADER_SIZE);
-			state = STATE_HEADER;
+		if (writeBuffer == null) {
+			if (pendingWrites() == 0 && fileRegion == null) return null;
+			writeBuffer = newConnectionBuffer().clear().limit(0);
+		}
+
+		try {
+			if (!writeBuffer.hasRemaining()) {
+				if (fileRegion != null) return readFileRegion();
+				writeBuffer.clear().limit(0);
+			}
 
-			writeBuffer.clear().limit(0);
-			writeQueue = new ConcurrentLinkedQueue<>();
+			// Nothing from write buffer is written yet, so more packets can be added
+			if (writeBuffer.position() == 0 && fileRegion == null) {
+				fillWriteBuffer();
+				if (!writeBuffer.hasRemaining() || holdWrites()) return null;
+			}
+
+			return writeBuffer;
+		} catch (Throwable t) {
+			closeWith(false, t);
+			throw t instanceof IOException ioe ? ioe : new IOException("Error while writing to channel", t);
+		} finally {
+			recycleWriteBuffer();
 		}
 	}
 
 	/**
 	 * <p>
-	 * Check whether the connection is considered to be "closed".
+	 * Complete the write operation started with {@link #beginWrite()}.
 	 * </p>
 	 * 
-	 * @return Whether the connection is closed.
+	 * @param bytesWritten The number of bytes written.
 	 */
-	public boolean isClosed() { return closed; }
+	void endWrite(int bytesWritten) {
+		if (bytesWritten > 0) writeCalls++;
+	}
 
 	/**
 	 * <p>
-	 * Set the close state of this connection. The state is automatically changed
-	 * before {@link #onClose(boolean, Throwable)} is called.
+	 * Close this connection with error from write operation started with
+	 * {@link #beginWrite()}.
 	 * </p>
-	 * 
-	 * @param closed The new close state.
+	 */
+	void writeFailed(Throwable error) {
+		closeFromTransport(false, error);
+		recycleWriteBuffer();
+	}
+
+	private ByteBuffer readFileRegion() throws IOException {
+		FileRegion region = fileRegion;
+		int length = (int) Math.min(writeBuffer.capacity(), region.count - fileRegionWritten);
+		writeBuffer.clear().limit(length);
+
+		while (writeBuffer.hasRemaining()) {
+			int bytesRead = region.file.read(writeBuffer, region.position + fileRegionWritten + writeBuffer.position());
+			if (bytesRead == -1) throw new EOFException(
+				"File region [%d; %d) is beyond end of file".formatted(region.position, region.position + region.count));
+		}
+
+		fileRegionWritten += length;
+
+		if (fileRegionWritten == region.count) {
+			fileRegion = null;
+			fileRegionWritten = 0L;
+		}
+
+		return writeBuffer.flip();
+	}
+
+	private boolean holdWrites() {
+		long requested = flushRequests.get();
+
+		if (requested != flushesHandled) {
+			// Flush is done once everything queued before flush() is in buffer
+			if (pendingWrites() == 0) flushesHandled = requested;
+			return holding = false;
+		}
+
+		// Body of file region can't wait in buffer, so its header can't either
+		if (fileRegion != null) return holding = false;
+		FlushPolicy policy = flushPolicy;
+		return holding = !writeBufferFull
+			&& writeBuffer.remaining() < policy.maxBytes
+			&& System.nanoTime() - heldSince < policy.maxDelayNanos;
+	}
+
+	private int fillWriteBuffer() {
+		// Append to packets that are held in buffer
+		boolean empty = !writeBuffer.hasRemaining();
+		writeBuffer.position(writeBuffer.limit()).limit(writeBuffer.capacity());
+		writeBufferFull = false;
+		FlushPolicy policy = flushPolicy;
+		boolean batching = writeBatching || !policy.isImmediate();
+		int frames = 0;
+		HeaderFormat format = headerFormat;
+		OutgoingQueue writeQueue;
+
+		while ((writeQueue = nextWriteQueue()) != null) {
+			int start = writeBuffer.position();
+
+			try {
+				PacketMode mode = writeQueue.mode();
+				int type = writeQueue.type();
+				int reqId = writeQueue.reqId();
+				int reservedHeaderSize = reservedHeaderSize(format, mode, type, reqId);
+				if (writeBuffer.remaining() < reservedHeaderSize) throw new BufferOverflowException();
+
+				if (writeQueue.encoder() == FILE_ENCODER) {
+					// Only header goes to buffer; body follows once buffer is flushed
+					fileRegion = (FileRegion) writeQueue.value();
+					int headerSize = putHeader(format, start, mode, false, fileRegion.count, type, reqId);
+					writeBuffer.position(start + headerSize);
+					dequeue(writeQueue);
+					frames++;
+					break;
+				}
+
+				// Header size is only known after encoding body
+				int bodyStart = start + reservedHeaderSize;
+				writeBuffer
+					.position(bodyStart)
+					.limit(Math.min(writeBuffer.capacity(), bodyStart + MAX_BODY_SIZE));
+				writeQueue.encode(writeBuffer);
+				int size = writeBuffer.position() - bodyStart;
+				int threshold = compressionThreshold;
+				int compressedSize = threshold >= 0 && size > threshold ? deflate(bodyStart, size) : size;
+				int headerSize = putHeader(format, start, mode, compressedSize < size, compressedSize, type, reqId);
+				if (headerSize != reservedHeaderSize) writeBuffer.put(start + headerSize, writeBuffer, bodyStart, compressedSize);
+				writeBuffer
+					.limit(writeBuffer.capacity())
+					.position(start + headerSize + compressedSize);
+			} catch (BufferOverflowException e) {
+				// Packet that does not fit in empty buffer will never fit
+				if (start == 0) throw e;
+				writeBuffer.limit(writeBuffer.capacity()).position(start);
+				writeBufferFull = true;
+				break;
+			}
+
+			dequeue(writeQueue);
+			frames++;
+			if (!batching) break;
+		}
+
+		writeBuffer.flip();
+		framesWritten += frames;
+		if (empty && frames != 0 && !policy.isImmediate()) heldSince = System.nanoTime();
+		return frames;
+	}
+
+	/**
+	 * <p>
+	 * Get the space for header in front of packet body, which must hold the header
+	 * for any body size. Only the size field of compact header depends on body, so
+	 * the rest is sized exactly, leaving as much space for body as possible.
+	 * </p>
+	 */
+	private static int reservedHeaderSize(HeaderFormat format, PacketMode mode, int type, int reqId) {
+		if (format == HeaderFormat.FIXED) return HEADER_SIZE;
+		return 1 + MAX_COMPACT_SIZE_FIELD + varIntSize(type) + (mode != PacketMode.NOTIFY ? varIntSize(reqId) : 0);
+	}
+
+	private static int varIntSize(int value) {
+		return (32 - Integer.numberOfLeadingZeros(value | 1) + 6) / 7;
+	}
+
+	private int putHeader(HeaderFormat format, int start, PacketMode mode, boolean compressed, int size, int type, int reqId) {
+		if (format == HeaderFormat.FIXED) {
+			writeBuffer
+				.putShort(start, (short) (mode.ordinal() | (compressed ? FLAG_COMPRESSED : 0)))
+				.putShort(start + 2, (short) size)
+				.putInt(start + 4, type)
+				.putInt(start + 8, reqId);
+			return HEADER_SIZE;
+		}
+
+		writeBuffer.put(start, (byte) (mode.ordinal() | (compressed ? COMPACT_FLAG_COMPRESSED : 0)));
+		int index = start + 1;
+		index += putVarInt(writeBuffer, index, size);
+		index += putVarInt(writeBuffer, index, type);
+		if (mode != PacketMode.NOTIFY) index += putVarInt(writeBuffer, index, reqId);
+		return index - start;
+	}
+
+	private int deflate(int bodyStart, int size) {
+		if (deflater == null) {
+			deflater = new Deflater(Deflater.BEST_SPEED);
+			deflateBuffer = ByteBuffer.allocate(MAX_BODY_SIZE);
+		}
+
+		deflater.reset();
+		byte[] dictionary = compressionDictionary;
+		if (dictionary != null) deflater.setDictionary(dictionary);
+		deflater.setInput(writeBuffer.slice(bodyStart, size));
+		deflater.finish();
+		// Only worth it when compressed body is smaller
+		deflater.deflate(deflateBuffer.clear().limit(size - 1));
+		if (!deflater.finished()) return size;
+
+		int compressedSize = deflateBuffer.flip().remaining();
+		writeBuffer.put(bodyStart, deflateBuffer, 0, compressedSize);
+		framesCompressed++;
+		return compressedSize;
+	}
+
+	private boolean transferFileRegion(ByteChannel channel) throws IOException {
+		FileRegion region = fileRegion;
+
+		while (fileRegionWritten < region.count) {
+			long position = region.position + fileRegionWritten;
+			long transferred = region.file.transferTo(position, region.count - fileRegionWritten, channel);
+
+			if (transferred == 0L) {
+				if (position >= region.file.size()) throw new EOFException(
+					"File region [%d; %d) is beyond end of file".formatted(region.position, region.position + region.count));
+				return false;
+			}
+
+			fileRegionWritten += transferred;
+			writeCalls++;
+		}
+
+		fileRegion = null;
+		fileRegionWritten = 0L;
+		return true;
+	}
+
+	/**
+	 * <p>
+	 * Take all outgoing packets from write queue and pass them to sink, instead of
+	 * encoding them to channel. Must be called from the thread that writes this
+	 * connection.
+	 * </p>
+	 * 
+	 * @param sink The sink that receives packets.
+	 * @return The number of transferred packets.
+	 * @throws IOException If sink failed to handle packet.
+	 * @see #encodeBody(BufferEncoder, Object, ByteBuffer)
+	 */
+	int transferWrites(PacketSink sink) throws IOException {
+		int frames = 0;
+		OutgoingQueue queue;
+		drainWriteWaiters();
+
+		while (!closed && (queue = nextWriteQueue()) != null) {
+			PacketMode mode = queue.mode();
+			int type = queue.type();
+			int reqId = queue.reqId();
+			BufferEncoder<Object> encoder = queue.encoder();
+			Object value = queue.value();
+			dequeue(queue);
+			framesWritten++;
+			frames++;
+			sink.accept(mode, type, reqId, encoder, value);
+		}
+
+		return frames;
+	}
+
+	/**
+	 * <p>
+	 * Encode the body of packet taken with {@link #transferWrites(PacketSink)}.
+	 * File regions are read into buffer.
+	 * </p>
+	 * 
+	 * @param encoder The encoder of packet.
+	 * @param value   The value of packet.
+	 * @param buffer  The buffer to encode packet body to.
+	 * @throws IOException If file region can't be read.
+	 */
+	static void encodeBody(BufferEncoder<Object> encoder, Object value, ByteBuffer buffer) throws IOException {
+		if (encoder != FILE_ENCODER) {
+			encoder.encode(value, buffer);
+			return;
+		}
+
+		FileRegion region = (FileRegion) value;
+		if (buffer.remaining() < region.count) throw new BufferOverflowException();
+		int limit = buffer.limit();
+		buffer.limit(buffer.position() + region.count);
+
+		for (long position = region.position; buffer.hasRemaining();) {
+			int bytesRead = region.file.read(buffer, position);
+			if (bytesRead == -1) throw new EOFException(
+				"File region [%d; %d) is beyond end of file".formatted(region.position, region.position + region.count));
+			position += bytesRead;
+		}
+
+		buffer.limit(limit);
+	}
+
+	/**
+	 * <p>
+	 * Pass a packet to {@link #onRawPacket(PacketMode, int, int, ByteBuffer)} as if
+	 * it was read from channel. Must be called from the thread that reads this
+	 * connection.
+	 * </p>
+	 */
+	void deliverRawPacket(PacketMode mode, int type, int reqId, ByteBuffer buffer) {
+		if (closed) return;
+		framesRead++;
+		onRawPacket(mode, type, reqId, buffer);
+	}
+
+	/**
+	 * <p>
+	 * Close this connection as if end of stream was reached, or as if an error
+	 * occurred while reading or writing when error is not {@code null}.
+	 * </p>
+	 */
+	void closeFromTransport(boolean remote, Throwable error) {
+		closeWith(remote, error);
+	}
+
+	private OutgoingQueue nextWriteQueue() {
+		WriteLanes lanes = writeLanes;
+		OutgoingQueue[] queues = lanes.queues;
+		if (queues.length == 1) return queues[0].peek() ? queues[0] : null;
+		int ready = 0;
+		for (int i = 0; i < queues.length; i++) if (queues[i].peek()) ready |= 1 << i;
+		if (ready == 0) return null;
+		selectedLane = lanes.scheduler.select(ready);
+		return queues[selectedLane];
+	}
+
+	private static WriteLanes newWriteLanes(WriteScheduler scheduler) {
+		int lanes = scheduler.lanes();
+		if (lanes < 1 || lanes > WriteScheduler.MAX_LANES) throw new IllegalArgumentException(
+			"Number of lanes must be between 1 and %d: %d".formatted(WriteScheduler.MAX_LANES, lanes));
+		OutgoingQueue[] queues = new OutgoingQueue[lanes];
+		for (int i = 0; i < lanes; i++) queues[i] = new OutgoingQueue(WRITE_QUEUE_CAPACITY);
+		return new WriteLanes(scheduler, queues);
+	}
+
+	private ByteBuffer newConnectionBuffer() {
+		ByteBuffer buffer = createConnectionBuffer();
+		if (buffer == null) throw new NullPointerException("createConnectionBuffer() returns null");
+		return buffer;
+	}
+
+	private void recycleReadBuffer() {
+		if (closed && inflater != null) {
+			inflater.end();
+			inflater = null;
+			inflateBuffer = null;
+		}
+
+		// Read buffer is in write mode, so position is the number of unprocessed bytes
+		if (readBuffer == null || (!closed && readBuffer.position() != 0)) return;
+
+		// Clear the field first, so that a failed release is never retried with the
+		// same buffer
+		ByteBuffer buffer = readBuffer;
+		readBuffer = null;
+		if (!releaseConnectionBuffer(buffer)) readBuffer = buffer;
+	}
+
+	private void recycleWriteBuffer() {
+		if (closed && deflater != null) {
+			deflater.end();
+			deflater = null;
+			deflateBuffer = null;
+		}
+
+		if (writeBuffer == null || (!closed && writeBuffer.hasRemaining())) return;
+		ByteBuffer buffer = writeBuffer;
+		writeBuffer = null;
+		if (!releaseConnectionBuffer(buffer)) writeBuffer = buffer;
+	}
+
+	/**
+	 * <p>
+	 * Release connection buffers of closed connection. Must be called from the
+	 * thread that reads and writes this connection.
+	 * </p>
+	 */
+	void releaseBuffers() {
+		recycleReadBuffer();
+		recycleWriteBuffer();
+	}
+
+	/**
+	 * <p>
+	 * Check whether this connection have packets waiting to be written to channel.
+	 * This can be used to determine whether to wait for the channel to be writable,
+	 * like toggling {@link java.nio.channels.SelectionKey#OP_WRITE} interest.
+	 * </p>
+	 * 
+	 * @return Whether there are packets waiting to be written.
+	 */
+	public boolean hasPendingWrites() {
+		return pendingWrites() > 0 || fileRegion != null || (writeBuffer != null && writeBuffer.hasRemaining());
+	}
+
+	/**
+	 * <p>
+	 * Check whether packets are held in write buffer by flush policy, waiting for
+	 * more packets, {@link #flush()} or flush deadline. Drivers should not wait for
+	 * the channel to be writable while packets are held, as
+	 * {@link #channelWrite(ByteChannel)} would not write anything. Must be called
+	 * from the thread that writes this connection.
+	 * </p>
+	 * 
+	 * @return Whether packets are held.
+	 * @see #setFlushPolicy(FlushPolicy)
+	 * @see #getFlushDeadline()
+	 */
+	public boolean isHoldingWrites() {
+		return holding && pendingWrites() == 0 && flushRequests.get() == flushesHandled;
+	}
+
+	/**
+	 * <p>
+	 * Get the time at which held packets must be written, as in
+	 * {@link System#nanoTime()}. Drivers should call
+	 * {@link #channelWrite(ByteChannel)} at this time. Must be called from the
+	 * thread that writes this connection.
+	 * </p>
+	 * 
+	 * @return The flush deadline, or {@link Long#MAX_VALUE} if there are no held
+	 *         packets or they are held until {@link #flush()}.
+	 */
+	public long getFlushDeadline() {
+		long delay = flushPolicy.maxDelayNanos;
+		return holding && delay != Long.MAX_VALUE ? heldSince + delay : Long.MAX_VALUE;
+	}
+
+	/**
+	 * <p>
+	 * Request packets held by flush policy to be written. All packets queued before
+	 * this call will be written by the next {@link #channelWrite(ByteChannel)}
+	 * calls, regardless of flush policy. This can be called from any thread.
+	 * </p>
+	 * 
+	 * @see #setFlushPolicy(FlushPolicy)
+	 */
+	public void flush() {
+		flushRequests.incrementAndGet();
+		wakeup();
+	}
+
+	/**
+	 * <p>
+	 * Set the flush policy, which decides whether to write packets right away or
+	 * hold them for a little while to write more packets at once. Packets held with
+	 * previous policy are written with {@link #flush()}.
+	 * </p>
+	 * 
+	 * @param flushPolicy The flush policy.
+	 * @see FlushPolicy
+	 */
+	public void setFlushPolicy(FlushPolicy flushPolicy) {
+		this.flushPolicy = Objects.requireNonNull(flushPolicy, "'flushPolicy' is null");
+	}
+
+	/**
+	 * <p>
+	 * Get the flush policy.
+	 * </p>
+	 * 
+	 * @return The flush policy.
+	 */
+	public FlushPolicy getFlushPolicy() { return flushPolicy; }
+
+	/**
+	 * <p>
+	 * Set the wakeup hook, which will be called when a packet is queued while there
+	 * are no other packets waiting to be written, as well as when the connection
+	 * is requested to be closed. The hook is typically used to wake up the thread
+	 * that is calling {@link #channelWrite(ByteChannel)}, like unparking the
+	 * networking thread or calling {@link Selector#wakeup()}. The hook may be
+	 * called from any thread, including the networking thread itself.
+	 * </p>
+	 * 
+	 * @param hook The wakeup hook, or {@code null} to remove the hook.
+	 */
+	public void setWakeupHook(Runnable hook) { this.wakeupHook = hook; }
+
+	/**
+	 * <p>
+	 * Set the write scheduler of this connection. The scheduler determines the
+	 * number of outgoing lanes, which lane each packet goes to and the order of
+	 * writing packets from different lanes. By default, the connection uses
+	 * {@link WriteScheduler#fifo()}, which writes all packets in the order they
+	 * were queued.
+	 * </p>
+	 * <p>
+	 * The scheduler can only be changed while there are no packets waiting to be
+	 * written, and should not be changed while other threads are queueing
+	 * packets. Typically this is called in constructor.
+	 * </p>
+	 * {@snippet :
+	 * public MyConnection() {
+	 * 	setWriteScheduler(WriteScheduler.strictPriority());
+	 * }
+	 * }
+	 * 
+	 * @param scheduler The write scheduler.
+	 * @throws IllegalStateException If there are packets waiting to be written.
+	 */
+	public void setWriteScheduler(WriteScheduler scheduler) {
+		Objects.requireNonNull(scheduler, "'scheduler' is null");
+		if (pendingWrites() != 0)
+			throw new IllegalStateException("Cannot change write scheduler while there are packets waiting to be written");
+		writeLanes = newWriteLanes(scheduler);
+	}
+
+	/**
+	 * <p>
+	 * Get the write scheduler of this connection.
+	 * </p>
+	 * 
+	 * @return The write scheduler.
+	 * @see #setWriteScheduler(WriteScheduler)
+	 */
+	public WriteScheduler getWriteScheduler() { return writeLanes.scheduler; }
+
+	/**
+	 * <p>
+	 * Set the write watermarks of this connection. When the number of packets
+	 * waiting to be written reaches high watermark, the connection becomes
+	 * unwritable and {@link #onWritabilityChanged(boolean)} is called. Once the
+	 * number of waiting packets drops to low watermark, the connection becomes
+	 * writable again. Packets can still be queued while the connection is not
+	 * writable; use {@link #isWritable()} or
+	 * {@link #queueRawPacketWriteAsync(PacketMode, int, int, Consumer)} to apply
+	 * backpressure. By default, the high watermark is unbounded.
+	 * </p>
+	 * 
+	 * @param low  The low watermark.
+	 * @param high The high watermark.
+	 */
+	public void setWriteWatermarks(int low, int high) {
+		if (low < 0 || high <= low)
+			throw new IllegalArgumentException("Invalid watermarks: low = %d, high = %d".formatted(low, high));
+		lowWatermark = low;
+		highWatermark = high;
+	}
+
+	/**
+	 * <p>
+	 * Check whether the number of packets waiting to be written is below high
+	 * watermark.
+	 * </p>
+	 * 
+	 * @return Whether the connection is writable.
+	 * @see #setWriteWatermarks(int, int)
+	 */
+	public boolean isWritable() { return (writeState.get() & UNWRITABLE) == 0L; }
+
+	private int pendingWrites() {
+		return (int) (writeState.get() >>> 1);
+	}
+
+	/**
+	 * <p>
+	 * Check whether the connection is considered to be "closed".
+	 * </p>
+	 * 
+	 * @return Whether the connection is closed.
+	 */
+	public boolean isClosed() { return closed; }
+
+	/**
+	 * <p>
+	 * Get the number of packets that have been read from channel.
+	 * </p>
+	 * 
+	 * @return The number of read packets.
+	 */
+	public long getFramesRead() { return framesRead; }
+
+	/**
+	 * <p>
+	 * Get the number of read calls to channel that actually read something.
+	 * </p>
+	 * 
+	 * @return The number of read calls.
+	 */
+	public long getReadCalls() { return readCalls; }
+
+	/**
+	 * <p>
+	 * Check whether write batching is enabled.
+	 * </p>
+	 * 
+	 * @return Whether write batching is enabled.
+	 * @see #setWriteBatching(boolean)
+	 */
+	public boolean isWriteBatching() { return writeBatching; }
+
+	/**
+	 * <p>
+	 * Enable or disable write batching. When enabled,
+	 * {@link #channelWrite(ByteChannel)} will encode as many queued packets as the
+	 * write buffer can hold before writing to channel, so a single write call may
+	 * carry multiple packets. When disabled (the default), each packet is written
+	 * to channel separately.
+	 * </p>
+	 * <p>
+	 * With write batching enabled, the write callback of a packet that does not fit
+	 * in the remaining space of write buffer will be called again once the buffer
+	 * is flushed, so write callbacks should not have side effects.
+	 * </p>
+	 * 
+	 * @param writeBatching Whether to enable write batching.
+	 */
+	public void setWriteBatching(boolean writeBatching) { this.writeBatching = writeBatching; }
+
+	/**
+	 * <p>
+	 * Check whether read batching is enabled.
+	 * </p>
+	 * 
+	 * @return Whether read batching is enabled.
+	 * @see #setReadBatching(boolean)
+	 */
+	public boolean isReadBatching() { return readBatching; }
+
+	/**
+	 * <p>
+	 * Enable or disable read batching. When enabled, all complete packets parsed
+	 * from read buffer after a single read from channel are passed to
+	 * {@link #onRawPacketBatch(PacketBatch)} at once, instead of calling
+	 * {@link #onRawPacket(PacketMode, int, int, ByteBuffer)} for each packet. When
+	 * disabled (the default), each packet is passed as soon as it is parsed.
+	 * </p>
+	 * <p>
+	 * Uncompressed packets in the batch are views of the read buffer, so batching
+	 * does not copy packet bodies. Compressed packets are inflated into a buffer
+	 * owned by the batch.
+	 * </p>
+	 * 
+	 * @param readBatching Whether to enable read batching.
+	 */
+	public void setReadBatching(boolean readBatching) { this.readBatching = readBatching; }
+
+	/**
+	 * <p>
+	 * Set the header format of packets. Both sides of connection must use the same
+	 * header format, and the format should be set before any packet is exchanged.
+	 * The default header format is {@link HeaderFormat#FIXED}, which is understood
+	 * by all peers.
+	 * </p>
+	 * 
+	 * @param headerFormat The header format.
+	 * @see HeaderFormat
+	 */
+	public void setHeaderFormat(HeaderFormat headerFormat) {
+		this.headerFormat = Objects.requireNonNull(headerFormat, "'headerFormat' is null");
+	}
+
+	/**
+	 * <p>
+	 * Get the header format of packets.
+	 * </p>
+	 * 
+	 * @return The header format.
+	 * @see #setHeaderFormat(HeaderFormat)
+	 */
+	public HeaderFormat getHeaderFormat() { return headerFormat; }
+
+	/**
+	 * <p>
+	 * Enable or disable compression of outgoing packets. Packet bodies larger than
+	 * threshold are compressed with {@link Deflater}, and are sent compressed only
+	 * if that makes them smaller. Compressed frames are marked with a flag in
+	 * packet header, and are always decompressed by receiving side regardless of
+	 * its own compression settings, so compression can be enabled on either side
+	 * independently. Packets not larger than threshold are sent as-is without any
+	 * extra cost.
+	 * </p>
+	 * <p>
+	 * A preset dictionary with byte sequences that commonly appear in packets
+	 * greatly improves compression of small packets. When dictionary is used, both
+	 * sides must set the same dictionary before any packet is exchanged.
+	 * </p>
+	 * {@snippet :
+	 * static final byte[] DICTIONARY = "{\"name\":\"\",\"id\":".getBytes(StandardCharsets.UTF_8);
+	 * 
+	 * public MyConnection() {
+	 * 	setCompression(256, DICTIONARY);
+	 * }
+	 * }
+	 * 
+	 * @param threshold  The minimum body size in bytes (exclusive) for packets to
+	 *                   be compressed, or negative value to disable compression.
+	 * @param dictionary The preset dictionary, or {@code null} to not use one.
+	 */
+	public void setCompression(int threshold, byte[] dictionary) {
+		this.compressionDictionary = dictionary != null ? dictionary.clone() : null;
+		this.compressionThreshold = threshold;
+	}
+
+	/**
+	 * <p>
+	 * Get the compression threshold.
+	 * </p>
+	 * 
+	 * @return The compression threshold, or negative value if compression is
+	 *         disabled.
+	 * @see #setCompression(int, byte[])
+	 */
+	public int getCompressionThreshold() { return compressionThreshold; }
+
+	/**
+	 * <p>
+	 * Get the number of packets that have been sent compressed.
+	 * </p>
+	 * 
+	 * @return The number of compressed packets.
+	 */
+	public long getFramesCompressed() { return framesCompressed; }
+
+	/**
+	 * <p>
+	 * Get the number of packets that have been encoded into write buffer.
+	 * </p>
+	 * 
+	 * @return The number of written packets.
+	 */
+	public long getFramesWritten() { return framesWritten; }
+
+	/**
+	 * <p>
+	 * Get the number of write calls to channel that actually written something.
+	 * </p>
+	 * 
+	 * @return The number of write calls.
+	 */
+	public long getWriteCalls() { return writeCalls; }
+
+	/**
+	 * <p>
+	 * Get the average number of packets carried by a single write call to channel.
+	 * </p>
+	 * 
+	 * @return The average number of packets per write call.
+	 */
+	public double getFramesPerWrite() { return writeCalls == 0L ? 0d : (double) framesWritten / writeCalls; }
+
+	/**
+	 * <p>
+	 * Set the close state of this connection. The state is automatically changed
+	 * before {@link #onClose(boolean, Throwable)} is called.
+	 * </p>
+	 * 
+	 * @param closed The new close state.
 	 */
 	protected void setClosed(boolean closed) { this.closed = closed; }
 
@@ -353,9 +1717,179 @@ public abstract class RawConnection implements AutoCloseable {
 	 */
 	@Override
 	public void close() {
-		if (closed) return;
-		onClose(false, null);
+		closeWith(false, null);
+	}
+
+	private void closeWith(boolean remote, Throwable error) {
+		// The reader and the writer may fail at the same time, or race with a close
+		// requested by application. Only the first one gets to report the reason.
+		if (!closeHandled.compareAndSet(false, true)) return;
 		closed = true;
+		onClose(remote, error);
+		abortWriteWaiters();
+		wakeup();
+	}
+
+	/**
+	 * <p>
+	 * Packets parsed from read buffer in a single pass, passed to
+	 * {@link RawConnection#onRawPacketBatch(PacketBatch)}. Packets are accessed by
+	 * index, so iterating a batch does not allocate.
+	 * </p>
+	 * {@snippet :
+	 * &#64;Override
+	 * protected void onRawPacketBatch(PacketBatch batch) {
+	 * 	List&lt;Row&gt; rows = new ArrayList&lt;&gt;(batch.size());
+	 * 	for (int i = 0; i &lt; batch.size(); i++) rows.add(Row.CODEC.decode(batch.buffer(i)));
+	 * 	database.insertAll(rows);
+	 * }
+	 * }
+	 * 
+	 * @see RawConnection#setReadBatching(boolean)
+	 */
+	public static final class PacketBatch {
+		private PacketMode[] modes = new PacketMode[16];
+		private int[] types = new int[16];
+		private int[] reqIds = new int[16];
+		private ByteBuffer[] buffers = new ByteBuffer[16];
+		private int[] offsets = new int[16];
+		private int[] lengths = new int[16];
+		private ByteBuffer copies = null;
+		private int size = 0;
+
+		PacketBatch() {}
+
+		/**
+		 * <p>
+		 * Get the number of packets in this batch.
+		 * </p>
+		 * 
+		 * @return The number of packets.
+		 */
+		public int size() { return size; }
+
+		/**
+		 * <p>
+		 * Get the mode of packet.
+		 * </p>
+		 * 
+		 * @param index The index of packet.
+		 * @return The packet mode.
+		 */
+		public PacketMode mode(int index) { return modes[Objects.checkIndex(index, size)]; }
+
+		/**
+		 * <p>
+		 * Get the numerical ID of packet type.
+		 * </p>
+		 * 
+		 * @param index The index of packet.
+		 * @return The packet type ID.
+		 */
+		public int type(int index) { return types[Objects.checkIndex(index, size)]; }
+
+		/**
+		 * <p>
+		 * Get the peer's request ID of packet.
+		 * </p>
+		 * 
+		 * @param index The index of packet.
+		 * @return The request ID.
+		 */
+		public int reqId(int index) { return reqIds[Objects.checkIndex(index, size)]; }
+
+		/**
+		 * <p>
+		 * Get the buffer with packet body, with position and limit set to the bounds
+		 * of body. Packets share underlying buffers, so the returned buffer is only
+		 * valid until the next call to this method.
+		 * </p>
+		 * 
+		 * @param index The index of packet.
+		 * @return The buffer with packet body.
+		 */
+		public ByteBuffer buffer(int index) {
+			Objects.checkIndex(index, size);
+			return buffers[index].clear().position(offsets[index]).limit(offsets[index] + lengths[index]);
+		}
+
+		void add(PacketMode mode, int type, int reqId, ByteBuffer buffer, int offset, int length) {
+			if (size == modes.length) grow();
+			modes[size] = mode;
+			types[size] = type;
+			reqIds[size] = reqId;
+			buffers[size] = buffer;
+			offsets[size] = offset;
+			lengths[size] = length;
+			size++;
+		}
+
+		void addCopy(PacketMode mode, int type, int reqId, ByteBuffer body) {
+			int length = body.remaining();
+
+			// Earlier packets keep referencing the old buffer, so it is not copied over
+			if (copies == null || copies.remaining() < length)
+				copies = ByteBuffer.allocate(Math.max(MAX_BODY_SIZE, copies != null ? copies.capacity() * 2 : 0));
+
+			// Bodies are decoded with the byte order of connection buffer
+			copies.order(body.order());
+			int offset = copies.position();
+			copies.put(body);
+			add(mode, type, reqId, copies, offset, length);
+		}
+
+		void clear() {
+			Arrays.fill(buffers, 0, size, null);
+			if (copies != null) copies.clear();
+			size = 0;
+		}
+
+		private void grow() {
+			int capacity = modes.length * 2;
+			modes = Arrays.copyOf(modes, capacity);
+			types = Arrays.copyOf(types, capacity);
+			reqIds = Arrays.copyOf(reqIds, capacity);
+			buffers = Arrays.copyOf(buffers, capacity);
+			offsets = Arrays.copyOf(offsets, capacity);
+			lengths = Arrays.copyOf(lengths, capacity);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Format of packet header.
+	 * </p>
+	 * 
+	 * @see RawConnection#setHeaderFormat(HeaderFormat)
+	 */
+	public static enum HeaderFormat {
+		/**
+		 * <p>
+		 * Fixed 12 bytes header, described in {@link RawConnection}.
+		 * </p>
+		 */
+		FIXED,
+		/**
+		 * <p>
+		 * Compact header with variable size, which is 3 to 14 bytes. This is useful for
+		 * small packets, where fixed header would be larger than packet body:
+		 * <ol>
+		 * <li><b>Packet mode and flags (u8)</b>: The lower 4 bits is the ordinal of
+		 * {@link PacketMode}, and bit 4 is set if packet body is compressed;</li>
+		 * <li><b>Packet body size (varint)</b>;</li>
+		 * <li><b>Packet type ID (varint)</b>;</li>
+		 * <li><b>Request ID (varint)</b>: Omitted for notify packets.</li>
+		 * </ol>
+		 * Variable length integers are encoded as unsigned LEB128, where each byte
+		 * holds 7 bits and the highest bit is set if there are more bytes.
+		 * </p>
+		 * <p>
+		 * For packet type IDs below 2<sup>21</sup>, compact header is never larger
+		 * than fixed header, so connection buffers sized for fixed header hold
+		 * packets with the largest body as well.
+		 * </p>
+		 */
+		COMPACT;
 	}
 
 	public static enum PacketMode {
@@ -0,0 +1,127 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright © 2025 Tran Huu An
+ * 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the “Software”), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.github.nahkd123.transporter;
+
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * <p>
+ * Request limiter decides how many requests a connection may have in flight,
+ * which are requests sent to peer that are still waiting for response. Without
+ * a limit, a slow peer shows up as ever-growing queues on both sides; with a
+ * limit, excess requests are either queued locally or rejected right away (see
+ * {@link TransporterConnection#setRequestLimiter(RequestLimiter, boolean)}).
+ * </p>
+ * <ul>
+ * <li>{@link #fixed(int)}: Constant limit;</li>
+ * <li>{@link #aimd(int, int, Duration)}: Grow the limit by 1 while responses are
+ * fast, and cut it by 10% when a response is slow or a request timed out;</li>
+ * <li>{@link #gradient(int, int)}: Move the limit toward the ratio between
+ * long-term and current round-trip time, so the limit shrinks as soon as peer
+ * starts queueing requests.</li>
+ * </ul>
+ * {@snippet :
+ * connection.setRequestLimiter(RequestLimiter.gradient(20, 1000), true);
+ * }
+ * <p>
+ * Limiters may be stateful, so each connection needs its own instance.
+ * {@link #onSample(long, int, boolean)} may be called from any thread.
+ * </p>
+ * 
+ * @see TransporterConnection#setRequestLimiter(RequestLimiter, boolean)
+ */
+public interface RequestLimiter {
+	/**
+	 * <p>
+	 * Get the current limit of requests in flight.
+	 * </p>
+	 * 
+	 * @return The limit, at least 1.
+	 */
+	int limit();
+
+	/**
+	 * <p>
+	 * Record the outcome of a request.
+	 * </p>
+	 * 
+	 * @param rttNanos The round-trip time in nanoseconds, from sending request to
+	 *                 receiving response or timing out.
+	 * @param inFlight The number of requests in flight when the request was sent,
+	 *                 including itself.
+	 * @param dropped  Whether the request timed out without response.
+	 */
+	void onSample(long rttNanos, int inFlight, boolean dropped);
+
+	/**
+	 * <p>
+	 * Create a limiter with constant limit.
+	 * </p>
+	 * 
+	 * @param limit The limit, must be positive.
+	 * @return The limiter.
+	 */
+	static RequestLimiter fixed(int limit) {
+		return new FixedLimiter(limit);
+	}
+
+	/**
+	 * <p>
+	 * Create a limiter with additive increase and multiplicative decrease. Each
+	 * response within {@code latencyThreshold} grows the limit by 1 when the
+	 * window is at least half used, and each slower response or timeout cuts the
+	 * limit by 10%.
+	 * </p>
+	 * 
+	 * @param initialLimit     The initial limit.
+	 * @param maxLimit         The maximum limit.
+	 * @param latencyThreshold Round-trip time above which the peer is considered
+	 *                         overloaded.
+	 * @return The limiter.
+	 */
+	static RequestLimiter aimd(int initialLimit, int maxLimit, Duration latencyThreshold) {
+		Objects.requireNonNull(latencyThreshold, "'latencyThreshold' is null");
+		return new AimdLimiter(initialLimit, maxLimit, latencyThreshold.toNanos());
+	}
+
+	/**
+	 * <p>
+	 * Create a limiter that follows the gradient between long-term average and
+	 * current round-trip time. When round-trip time rises above the long-term
+	 * average, requests are being queued in peer, so the limit is reduced in
+	 * proportion; otherwise the limit grows by about square root of itself.
+	 * Unlike {@link #aimd(int, int, Duration)}, this does not need a latency
+	 * threshold.
+	 * </p>
+	 * 
+	 * @param initialLimit The initial limit.
+	 * @param maxLimit     The maximum limit.
+	 * @return The limiter.
+	 */
+	static RequestLimiter gradient(int initialLimit, int maxLimit) {
+		return new GradientLimiter(initialLimit, maxLimit);
+	}
+}
@@ -0,0 +1,233 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright © 2025 Tran Huu An
+ * 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the “Software”), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.github.nahkd123.transporter;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+/**
+ * <p>
+ * A byte channel backed by a memory-mapped file, for connecting peers on the
+ * same host without going through the kernel for each packet. The file holds 2
+ * single-producer, single-consumer rings, one for each direction. One peer
+ * creates the file with {@link #create(Path, int)} and the other peer maps the
+ * same file with {@link #open(Path)}.
+ * </p>
+ * {@snippet :
+ * // Peer A
+ * SharedMemoryChannel channel = SharedMemoryChannel.create(Path.of("/dev/shm/my-app"), 1 << 20);
+ * // Peer B
+ * SharedMemoryChannel channel = SharedMemoryChannel.open(Path.of("/dev/shm/my-app"));
+ * 
+ * while (!conn.isClosed()) {
+ * 	boolean continueInstantly = conn.channelRead(channel);
+ * 	continueInstantly |= conn.channelWrite(channel);
+ * 	if (!continueInstantly) Thread.onSpinWait();
+ * }
+ * }
+ * <p>
+ * The channel is always non-blocking: {@link #read(ByteBuffer)} returns 0 when
+ * the ring is empty and {@link #write(ByteBuffer)} returns 0 when the ring is
+ * full. There is no way to wait for data other than polling, so the channel is
+ * meant to be driven by a loop like above. Each side must only be used by one
+ * reading thread and one writing thread at a time.
+ * </p>
+ * <p>
+ * Closing the channel marks both rings as closed; the peer will read the
+ * remaining data and then end of stream, and writing to a closed ring throws
+ * {@link IOException}. The mapped file is not deleted when channel is closed.
+ * </p>
+ */
+public final class SharedMemoryChannel implements ByteChannel {
+	private static final int MAGIC = 0x54524E53; // "TRNS"
+	private static final int CACHE_LINE = 64;
+	private static final int MAGIC_OFFSET = 0;
+	private static final int CAPACITY_OFFSET = 4;
+	// Ring control block: tail, head and closed flag on separate cache lines
+	private static final int TAIL_OFFSET = 0;
+	private static final int HEAD_OFFSET = CACHE_LINE;
+	private static final int CLOSED_OFFSET = CACHE_LINE * 2;
+	private static final int CONTROL_SIZE = CACHE_LINE * 4;
+	private static final int HEADER_SIZE = CACHE_LINE + CONTROL_SIZE * 2;
+
+	private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+	private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+	private final MappedByteBuffer memory;
+	private final int capacity;
+	private final int mask;
+	private final int rxControl;
+	private final int rxData;
+	private final int txControl;
+	private final int txData;
+	private volatile boolean open = true;
+
+	// Local copies of positions owned by this side
+	private long rxHead;
+	private long txTail;
+
+	private SharedMemoryChannel(MappedByteBuffer memory, int capacity, boolean creator) {
+		this.memory = memory;
+		this.capacity = capacity;
+		this.mask = capacity - 1;
+		int control0 = CACHE_LINE, control1 = CACHE_LINE + CONTROL_SIZE;
+		int data0 = HEADER_SIZE, data1 = HEADER_SIZE + capacity;
+		this.txControl = creator ? control0 : control1;
+		this.txData = creator ? data0 : data1;
+		this.rxControl = creator ? control1 : control0;
+		this.rxData = creator ? data1 : data0;
+		this.rxHead = (long) LONG.getAcquire(memory, rxControl + HEAD_OFFSET);
+		this.txTail = (long) LONG.getAcquire(memory, txControl + TAIL_OFFSET);
+	}
+
+	/**
+	 * <p>
+	 * Create a new shared memory file and map it. Existing file will be
+	 * overwritten.
+	 * </p>
+	 * 
+	 * @param path     The path to shared memory file. On Linux, files in
+	 *                 {@code /dev/shm} are never written to disk.
+	 * @param capacity The capacity of each ring in bytes, must be a power of 2.
+	 * @return The channel.
+	 * @throws IOException If the file can't be created or mapped.
+	 */
+	public static SharedMemoryChannel create(Path path, int capacity) throws IOException {
+		Objects.requireNonNull(path, "'path' is null");
+		if (Integer.bitCount(capacity) != 1 || capacity > (Integer.MAX_VALUE - HEADER_SIZE) / 2)
+			throw new IllegalArgumentException("Capacity must be a power of 2: %d".formatted(capacity));
+
+		try (FileChannel file = FileChannel.open(path,
+			StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+			StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			MappedByteBuffer memory = file.map(MapMode.READ_WRITE, 0L, HEADER_SIZE + capacity * 2L);
+			memory.putInt(CAPACITY_OFFSET, capacity);
+			// Publish header last so peer never sees partially initialized file
+			INT.setRelease(memory, MAGIC_OFFSET, MAGIC);
+			return new SharedMemoryChannel(memory, capacity, true);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Map an existing shared memory file that was created with
+	 * {@link #create(Path, int)}.
+	 * </p>
+	 * 
+	 * @param path The path to shared memory file.
+	 * @return The channel.
+	 * @throws IOException If the file can't be mapped or is not a shared memory
+	 *                     channel file.
+	 */
+	public static SharedMemoryChannel open(Path path) throws IOException {
+		Objects.requireNonNull(path, "'path' is null");
+
+		try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			long size = file.size();
+			if (size < HEADER_SIZE) throw new IOException("Not a shared memory channel: %s".formatted(path));
+			MappedByteBuffer memory = file.map(MapMode.READ_WRITE, 0L, size);
+			if ((int) INT.getAcquire(memory, MAGIC_OFFSET) != MAGIC)
+				throw new IOException("Not a shared memory channel: %s".formatted(path));
+			int capacity = memory.getInt(CAPACITY_OFFSET);
+			if (Integer.bitCount(capacity) != 1 || size < HEADER_SIZE + capacity * 2L)
+				throw new IOException("Corrupted shared memory channel: %s".formatted(path));
+			return new SharedMemoryChannel(memory, capacity, false);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Get the capacity of each ring.
+	 * </p>
+	 * 
+	 * @return The capacity in bytes.
+	 */
+	public int getCapacity() { return capacity; }
+
+	@Override
+	public int read(ByteBuffer dst) throws IOException {
+		if (!open) throw new ClosedChannelException();
+		long tail = (long) LONG.getAcquire(memory, rxControl + TAIL_OFFSET);
+
+		if (tail == rxHead) {
+			// Closed flag is set after the last write, so check for data once more
+			if ((int) INT.getAcquire(memory, rxControl + CLOSED_OFFSET) == 0) return 0;
+			if ((long) LONG.getAcquire(memory, rxControl + TAIL_OFFSET) != rxHead) return read(dst);
+			return -1;
+		}
+
+		int length = (int) Math.min(dst.remaining(), tail - rxHead);
+		int index = (int) rxHead & mask;
+		int first = Math.min(length, capacity - index);
+		dst.put(dst.position(), memory, rxData + index, first);
+		dst.put(dst.position() + first, memory, rxData, length - first);
+		dst.position(dst.position() + length);
+		rxHead += length;
+		LONG.setRelease(memory, rxControl + HEAD_OFFSET, rxHead);
+		return length;
+	}
+
+	@Override
+	public int write(ByteBuffer src) throws IOException {
+		if (!open) throw new ClosedChannelException();
+		if ((int) INT.getAcquire(memory, txControl + CLOSED_OFFSET) != 0)
+			throw new IOException("Shared memory channel closed by peer");
+
+		long head = (long) LONG.getAcquire(memory, txControl + HEAD_OFFSET);
+		int length = (int) Math.min(src.remaining(), capacity - (txTail - head));
+		if (length == 0) return 0;
+
+		int index = (int) txTail & mask;
+		int first = Math.min(length, capacity - index);
+		memory.put(txData + index, src, src.position(), first);
+		memory.put(txData, src, src.position() + first, length - first);
+		src.position(src.position() + length);
+		txTail += length;
+		LONG.setRelease(memory, txControl + TAIL_OFFSET, txTail);
+		return length;
+	}
+
+	@Override
+	public boolean isOpen() { return open; }
+
+	@Override
+	public void close() {
+		if (!open) return;
+		open = false;
+		INT.setRelease(memory, txControl + CLOSED_OFFSET, 1);
+		INT.setRelease(memory, rxControl + CLOSED_OFFSET, 1);
+	}
+}
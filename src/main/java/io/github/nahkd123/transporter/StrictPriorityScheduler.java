@@ -0,0 +1,67 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright © 2025 Tran Huu An
+ * 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the “Software”), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.github.nahkd123.transporter;
+
+import io.github.nahkd123.transporter.RawConnection.PacketMode;
+
+class StrictPriorityScheduler implements WriteScheduler {
+	private final int lanes;
+
+	StrictPriorityScheduler(int lanes) {
+		if (lanes < 1 || lanes > MAX_LANES)
+			throw new IllegalArgumentException("Number of lanes must be between 1 and %d: %d".formatted(MAX_LANES, lanes));
+		this.lanes = lanes;
+	}
+
+	@Override
+	public int lanes() {
+		return lanes;
+	}
+
+	@Override
+	public int laneOf(PacketMode mode) {
+		int lane;
+
+		switch (mode) {
+		case RESPONSE_SUCCEED:
+		case RESPONSE_FAILED:
+			lane = 0;
+			break;
+		case REQUEST:
+			lane = 1;
+			break;
+		default:
+			lane = 2;
+			break;
+		}
+
+		return Math.min(lane, lanes - 1);
+	}
+
+	@Override
+	public int select(int readyLanes) {
+		return Integer.numberOfTrailingZeros(readyLanes);
+	}
+}
@@ -0,0 +1,339 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright © 2025 Tran Huu An
+ * 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the “Software”), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.github.nahkd123.transporter;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>
+ * Hashed timing wheel for scheduling many short-lived timeouts, like request
+ * timeouts, on a single thread. Timeouts are put into buckets by their
+ * deadline, and the thread visits one bucket per tick, so scheduling and
+ * cancelling are constant time operations and a million outstanding timeouts
+ * only cost a million small objects. The price is precision: timeouts fire up
+ * to one tick late.
+ * </p>
+ * <p>
+ * Tasks are run on the thread of timing wheel, so they must be short and must
+ * not block. Most connections should use {@link #shared()}, which ticks every
+ * 10 milliseconds and sleeps while there is no timeout.
+ * </p>
+ * 
+ * @see TransporterConnection#setRequestTimeout(Duration)
+ */
+public final class TimingWheel implements AutoCloseable {
+	private static final int PENDING = 0;
+	private static final int CANCELLED = 1;
+	private static final int EXPIRED = 2;
+
+	private final long tickNanos;
+	private final int mask;
+	private final Timeout[] buckets;
+	private final AtomicReference<Timeout> scheduled = new AtomicReference<>();
+	private final AtomicReference<Timeout> cancelled = new AtomicReference<>();
+	private final Thread worker;
+	private final boolean shared;
+	private volatile boolean closed = false;
+
+	// Worker state
+	private final long startTime;
+	private long tick = 0L;
+	private int size = 0;
+
+	/**
+	 * <p>
+	 * Create a new timing wheel with its own daemon platform thread.
+	 * </p>
+	 * 
+	 * @param tick    The duration of a tick.
+	 * @param buckets The number of buckets, which is rounded up to a power of 2.
+	 *                Timeouts further than {@code tick * buckets} in the future
+	 *                stay in their bucket for multiple rounds.
+	 */
+	public TimingWheel(Duration tick, int buckets) {
+		this(tick, buckets, Thread.ofPlatform().name("transporter-timer").daemon().factory());
+	}
+
+	/**
+	 * <p>
+	 * Create a new timing wheel with thread from factory.
+	 * </p>
+	 * 
+	 * @param tick          The duration of a tick.
+	 * @param buckets       The number of buckets, which is rounded up to a power of
+	 *                      2.
+	 * @param threadFactory The factory for creating timing wheel thread.
+	 */
+	public TimingWheel(Duration tick, int buckets, ThreadFactory threadFactory) {
+		this(tick, buckets, threadFactory, false);
+	}
+
+	private TimingWheel(Duration tick, int buckets, ThreadFactory threadFactory, boolean shared) {
+		Objects.requireNonNull(tick, "'tick' is null");
+		Objects.requireNonNull(threadFactory, "'threadFactory' is null");
+		if (tick.isNegative() || tick.isZero()) throw new IllegalArgumentException("Non-positive tick: %s".formatted(tick));
+		if (buckets <= 0 || buckets > (1 << 30))
+			throw new IllegalArgumentException("Number of buckets out of range: %d".formatted(buckets));
+		this.tickNanos = tick.toNanos();
+		this.buckets = new Timeout[buckets == 1 ? 1 : Integer.highestOneBit(buckets - 1) << 1];
+		this.mask = this.buckets.length - 1;
+		this.shared = shared;
+		this.startTime = System.nanoTime();
+		this.worker = threadFactory.newThread(this::run);
+		if (worker == null) throw new NullPointerException("threadFactory.newThread() returns null");
+		worker.start();
+	}
+
+	/**
+	 * <p>
+	 * Get the timing wheel shared by all connections in this JVM. The wheel ticks
+	 * every 10 milliseconds and can't be closed.
+	 * </p>
+	 * 
+	 * @return The shared timing wheel.
+	 */
+	public static TimingWheel shared() {
+		return Shared.INSTANCE;
+	}
+
+	private static final class Shared {
+		private static final TimingWheel INSTANCE = new TimingWheel(
+			Duration.ofMillis(10L), 512,
+			Thread.ofPlatform().name("transporter-shared-timer").daemon().factory(),
+			true);
+	}
+
+	/**
+	 * <p>
+	 * Schedule a task to run after delay.
+	 * </p>
+	 * 
+	 * @param task  The task.
+	 * @param delay The delay.
+	 * @param unit  The unit of delay.
+	 * @return The handle for cancelling the task.
+	 * @throws IllegalStateException If this timing wheel is closed.
+	 */
+	public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+		Objects.requireNonNull(task, "'task' is null");
+		Objects.requireNonNull(unit, "'unit' is null");
+		if (closed) throw new IllegalStateException("Timing wheel is closed");
+		long delayNanos = Math.max(0L, unit.toNanos(delay));
+		long now = System.nanoTime();
+		// Clamp to avoid overflow for very long delays
+		long deadline = now - startTime + Math.min(delayNanos, Long.MAX_VALUE - (now - startTime));
+		Timeout timeout = new Timeout(this, task, deadline);
+		push(scheduled, timeout, false);
+		return timeout;
+	}
+
+	/**
+	 * <p>
+	 * Stop the thread of this timing wheel. Scheduled tasks will never run.
+	 * </p>
+	 * 
+	 * @throws UnsupportedOperationException If this is the shared timing wheel.
+	 */
+	@Override
+	public void close() {
+		if (shared) throw new UnsupportedOperationException("Shared timing wheel can't be closed");
+		closed = true;
+		LockSupport.unpark(worker);
+	}
+
+	private void push(AtomicReference<Timeout> stack, Timeout timeout, boolean cancel) {
+		Timeout head;
+
+		do {
+			head = stack.get();
+			if (cancel) timeout.nextCancelled = head;
+			else timeout.nextScheduled = head;
+		} while (!stack.compareAndSet(head, timeout));
+
+		// Worker may be sleeping without any timeout
+		if (head == null && !cancel) LockSupport.unpark(worker);
+	}
+
+	private void run() {
+		while (!closed) {
+			if (size == 0 && scheduled.get() == null) {
+				LockSupport.park(this);
+				// Buckets are empty, so skipping ticks is fine
+				tick = Math.max(tick, (System.nanoTime() - startTime) / tickNanos);
+				continue;
+			}
+
+			long deadline = (tick + 1) * tickNanos;
+			long sleep;
+
+			while (!closed && (sleep = deadline - (System.nanoTime() - startTime)) > 0L) LockSupport.parkNanos(this, sleep);
+			if (closed) break;
+
+			transferScheduled();
+			removeCancelled();
+			expireBucket(buckets[(int) (tick & mask)], deadline);
+			tick++;
+		}
+	}
+
+	private void transferScheduled() {
+		Timeout timeout = scheduled.getAndSet(null);
+
+		while (timeout != null) {
+			Timeout next = timeout.nextScheduled;
+			timeout.nextScheduled = null;
+
+			if (timeout.state.get() == PENDING) {
+				long ticks = Math.max(timeout.deadline / tickNanos, tick);
+				timeout.rounds = (ticks - tick) / buckets.length;
+				int index = (int) (ticks & mask);
+				Timeout head = buckets[index];
+				timeout.bucket = index;
+				timeout.next = head;
+				if (head != null) head.prev = timeout;
+				buckets[index] = timeout;
+				size++;
+			}
+
+			timeout = next;
+		}
+	}
+
+	private void removeCancelled() {
+		Timeout timeout = cancelled.getAndSet(null);
+
+		while (timeout != null) {
+			Timeout next = timeout.nextCancelled;
+			timeout.nextCancelled = null;
+			if (timeout.bucket != -1) unlink(timeout);
+			timeout = next;
+		}
+	}
+
+	private void expireBucket(Timeout timeout, long deadline) {
+		while (timeout != null) {
+			Timeout next = timeout.next;
+
+			if (timeout.rounds <= 0 && timeout.deadline <= deadline) {
+				unlink(timeout);
+				timeout.expire();
+			} else if (timeout.state.get() == CANCELLED) {
+				unlink(timeout);
+			} else {
+				timeout.rounds--;
+			}
+
+			timeout = next;
+		}
+	}
+
+	private void unlink(Timeout timeout) {
+		if (timeout.prev != null) timeout.prev.next = timeout.next;
+		else buckets[timeout.bucket] = timeout.next;
+		if (timeout.next != null) timeout.next.prev = timeout.prev;
+		timeout.prev = null;
+		timeout.next = null;
+		timeout.bucket = -1;
+		size--;
+	}
+
+	@Override
+	public String toString() {
+		return "TimingWheel[tick=%dns, buckets=%d]".formatted(tickNanos, buckets.length);
+	}
+
+	/**
+	 * <p>
+	 * Handle of a task scheduled in {@link TimingWheel}.
+	 * </p>
+	 */
+	public static final class Timeout {
+		private final TimingWheel wheel;
+		private final Runnable task;
+		private final long deadline;
+		private final AtomicInteger state = new AtomicInteger(PENDING);
+		private Timeout nextScheduled = null;
+		private Timeout nextCancelled = null;
+
+		// Owned by worker
+		private Timeout prev = null;
+		private Timeout next = null;
+		private int bucket = -1;
+		private long rounds = 0L;
+
+		private Timeout(TimingWheel wheel, Runnable task, long deadline) {
+			this.wheel = wheel;
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * <p>
+		 * Cancel the task if it has not run yet.
+		 * </p>
+		 * 
+		 * @return Whether the task is cancelled by this call.
+		 */
+		public boolean cancel() {
+			if (!state.compareAndSet(PENDING, CANCELLED)) return false;
+			wheel.push(wheel.cancelled, this, true);
+			return true;
+		}
+
+		/**
+		 * <p>
+		 * Check whether the task is cancelled.
+		 * </p>
+		 * 
+		 * @return Whether the task is cancelled.
+		 */
+		public boolean isCancelled() { return state.get() == CANCELLED; }
+
+		/**
+		 * <p>
+		 * Check whether the task has run, or is running.
+		 * </p>
+		 * 
+		 * @return Whether the task is expired.
+		 */
+		public boolean isExpired() { return state.get() == EXPIRED; }
+
+		private void expire() {
+			if (!state.compareAndSet(PENDING, EXPIRED)) return;
+
+			try {
+				task.run();
+			} catch (Throwable t) {
+				t.printStackTrace();
+			}
+		}
+	}
+}
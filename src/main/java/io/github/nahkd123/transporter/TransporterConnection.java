@@ -27,15 +27,29 @@ package io.github.nahkd123.transporter;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ByteChannel;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Queue;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
+import io.github.nahkd123.transporter.Protocol.PacketType;
 import io.github.nahkd123.transporter.serialize.BufferCodec;
 import io.github.nahkd123.transporter.serialize.BufferDecoder;
 import io.github.nahkd123.transporter.serialize.BufferEncoder;
@@ -46,7 +60,8 @@ import io.github.nahkd123.transporter.serialize.BufferEncoder;
  * must register all packets that it wish to send and receive through
  * {@link #registerPacket(int, Class, BufferCodec)} or
  * {@link #registerPacket(int, Class, BufferEncoder, BufferDecoder)} methods.
- * All requests from peer must be resolved in {@link #onRequest(int, Object)},
+ * All requests from peer must be resolved in {@link #onRequest(int, Object)}
+ * or by request handlers (see {@link #registerRequestHandler(Class, Function)}),
  * or peer will wait for the response forever (until connection is closed,
  * actually).
  * </p>
@@ -86,20 +101,68 @@ import io.github.nahkd123.transporter.serialize.BufferEncoder;
  * @see #onPacket(PacketMode, int, Object)
  */
 public abstract class TransporterConnection extends RawConnection {
-	private final Map<Class<?>, BufferEncoder<?>> encoders = new HashMap<>();
-	private final Map<Class<?>, Integer> packetIds = new HashMap<>();
-	private final Map<Integer, BufferDecoder<?>> decoders = new HashMap<>();
-	private final Map<Class<?>, List<Consumer<?>>> listeners = new HashMap<>();
-	private final Map<Integer, CompletableFuture<?>> requests = new ConcurrentHashMap<>();
-	private int reqIdCounter = 0;
+	// Requests with different keys in the same stripe are serialized
+	static final int REQUEST_KEY_STRIPES = 256;
+
+	// Protocol built from packets registered in constructor, for each connection class
+	private static final ClassValue<AtomicReference<RegisteredProtocol>> REGISTERED_PROTOCOLS = new ClassValue<>() {
+		@Override
+		protected AtomicReference<RegisteredProtocol> computeValue(Class<?> clazz) {
+			return new AtomicReference<>();
+		}
+	};
+
+	private volatile Protocol protocol;
+	private Protocol baseProtocol = null;
+	private Protocol.Builder protocolBuilder = null;
+	private List<PacketType<?>> registeredTypes = null;
+	private boolean protocolBuilt = false;
+	private Map<Class<?>, List<Consumer<?>>> listeners = null;
+	private Map<Class<?>, Function<Object, ? extends CompletionStage<?>>> requestHandlers = null;
+	private final PendingRequests requests = new PendingRequests();
+	private volatile long requestTimeoutNanos = 0L;
+	private volatile KeyedExecutor requestExecutor = null;
+	private volatile RequestLimiter requestLimiter = null;
+	private volatile boolean queueExcessRequests = false;
+	private final AtomicInteger inFlightRequests = new AtomicInteger();
+	private final Queue<WaitingRequest> waitingRequests = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger drainRequests = new AtomicInteger();
+	private final List<Object> notificationBatch = new ArrayList<>();
+	private final List<Object> notificationBatchView = Collections.unmodifiableList(notificationBatch);
+
+	/**
+	 * <p>
+	 * Create a new connection without any packet type. Packet types must be
+	 * registered with {@link #registerPacket(int, Class, BufferCodec)} before
+	 * using the connection.
+	 * </p>
+	 */
+	protected TransporterConnection() {
+		this(Protocol.empty());
+	}
+
+	/**
+	 * <p>
+	 * Create a new connection with packet types from protocol. The protocol is
+	 * shared, so creating many connections with the same protocol does not copy
+	 * packet types.
+	 * </p>
+	 * 
+	 * @param protocol The protocol.
+	 */
+	protected TransporterConnection(Protocol protocol) {
+		this.protocol = Objects.requireNonNull(protocol, "'protocol' is null");
+	}
 
 	/**
 	 * <p>
-	 * Handle request received from peer. Upon completion, implementation must
-	 * response with either {@link Request#responseSuccess(Object)} or
+	 * Handle request received from peer that has no request handler (see
+	 * {@link #registerRequestHandler(Class, Function)}). Upon completion,
+	 * implementation must response with either
+	 * {@link Request#responseSuccess(Object)} or
 	 * {@link Request#responseFailure(String)}, or throw a {@link Throwable},
 	 * otherwise the request task in peer will never be completed (until connection
-	 * is closed).
+	 * is closed). The default implementation responses with failure.
 	 * </p>
 	 * 
 	 * @param request The request.
@@ -109,10 +172,31 @@ public abstract class TransporterConnection extends RawConnection {
 	 * @see #queueSucceed(int, Object)
 	 * @see #queueFailed(int, String)
 	 */
-	protected abstract void onRequest(Request request) throws Throwable;
+	protected void onRequest(Request request) throws Throwable {
+		request.responseFailure("Not implemented: %s".formatted(request.packet().getClass().getName()));
+	}
 
 	protected void onNotification(Object data) {}
 
+	/**
+	 * <p>
+	 * Handle a run of consecutive notifications from a single packet batch, which
+	 * is only used when read batching is enabled (see
+	 * {@link #setReadBatching(boolean)}). Packet listeners and
+	 * {@link #onPacket(PacketMode, int, Object)} are still called for each
+	 * notification as it is decoded. Requests and responses in the same batch
+	 * split it into multiple runs, so packets are still handled in the order they
+	 * were received. The default implementation passes each notification to
+	 * {@link #onNotification(Object)}.
+	 * </p>
+	 * 
+	 * @param notifications The decoded notifications. The list is reused after
+	 *                      this method returns, so it must be copied to be kept.
+	 */
+	protected void onNotificationBatch(List<Object> notifications) {
+		for (Object data : notifications) onNotification(data);
+	}
+
 	protected void onPacket(PacketMode mode, int reqId, Object data) {}
 
 	protected void onUnknownRawPacket(PacketMode mode, int type, int reqId, ByteBuffer buffer) {
@@ -125,7 +209,14 @@ public abstract class TransporterConnection extends RawConnection {
 	/**
 	 * <p>
 	 * Register a new packet type. Packet type must be registered in order to queue
-	 * packets.
+	 * packets. The packet type is only added to this connection; the protocol that
+	 * this connection was created with is not changed.
+	 * </p>
+	 * <p>
+	 * Connections of the same class that register the same packets in constructor
+	 * share the protocol built from them, but registering is still repeated for
+	 * every connection. Consider building a {@link Protocol} once and sharing
+	 * it with {@link #TransporterConnection(Protocol)} instead.
 	 * </p>
 	 * 
 	 * @param <T>     Type of packet.
@@ -135,21 +226,16 @@ public abstract class TransporterConnection extends RawConnection {
 	 * @param decoder The packet decoder.
 	 * @see #registerPacket(int, Class, BufferCodec)
 	 */
-	protected <T> void registerPacket(int type, Class<T> clazz, BufferEncoder<T> encoder, BufferDecoder<T> decoder) {
-		Objects.requireNonNull(clazz, "'clazz' is null");
-		Objects.requireNonNull(encoder, "'encoder' is null");
-		Objects.requireNonNull(decoder, "'decoder' is null");
-
-		if (encoders.putIfAbsent(clazz, encoder) != null) {
-			throw new IllegalArgumentException("Class already registered: %s".formatted(clazz));
-		}
-
-		if (decoders.putIfAbsent(type, decoder) != null) {
-			encoders.remove(clazz);
-			throw new IllegalArgumentException("Type ID already registered: %d (0x%02x)".formatted(type, type));
+	protected synchronized <T> void registerPacket(int type, Class<T> clazz, BufferEncoder<T> encoder, BufferDecoder<T> decoder) {
+		if (protocolBuilder == null) {
+			baseProtocol = getProtocol();
+			protocolBuilder = baseProtocol.toBuilder();
+			registeredTypes = new ArrayList<>();
 		}
 
-		packetIds.put(clazz, type);
+		protocolBuilder.register(type, clazz, encoder, decoder);
+		registeredTypes.add(new PacketType<>(type, clazz, encoder, decoder));
+		protocol = null;
 	}
 
 	/**
@@ -186,69 +272,436 @@ public abstract class TransporterConnection extends RawConnection {
 	protected <T> void registerPacketListener(Class<T> clazz, Consumer<T> callback) {
 		Objects.requireNonNull(clazz, "'clazz' is null");
 		Objects.requireNonNull(callback, "'callback' is null");
+		if (listeners == null) listeners = new HashMap<>();
 		List<Consumer<?>> callbacks = listeners.computeIfAbsent(clazz, c -> new ArrayList<>());
 		callbacks.add(callback);
 	}
 
-	@SuppressWarnings({ "unchecked", "rawtypes" })
+	/**
+	 * <p>
+	 * Register request handler, which handles requests with specific packet class
+	 * instead of {@link #onRequest(Request)}. The response is queued when the
+	 * returned stage completes, so the handler may return immediately and complete
+	 * the stage later from any thread, such as when a call to another service is
+	 * done. If the stage completes exceptionally, the request is responded with
+	 * failure.
+	 * </p>
+	 * {@snippet :
+	 * registerRequestHandler(GetUser.class, req -> userService.fetch(req.id())
+	 * 	.thenApply(user -> new GetUserResponse(user.name())));
+	 * }
+	 * <p>
+	 * Handlers registered for the class of packet take precedence over handlers
+	 * registered for its supertype (see {@link Protocol#resolve(Class)}).
+	 * </p>
+	 * 
+	 * @param <T>     Type of request packet.
+	 * @param clazz   Class of request packet.
+	 * @param handler The handler, which returns the stage of response packet.
+	 * @throws IllegalArgumentException If a handler is already registered for the
+	 *                                  class.
+	 */
+	@SuppressWarnings("unchecked")
+	protected <T> void registerRequestHandler(Class<T> clazz, Function<? super T, ? extends CompletionStage<?>> handler) {
+		Objects.requireNonNull(clazz, "'clazz' is null");
+		Objects.requireNonNull(handler, "'handler' is null");
+		if (requestHandlers == null) requestHandlers = new HashMap<>();
+		if (requestHandlers.putIfAbsent(clazz, (Function<Object, ? extends CompletionStage<?>>) handler) != null)
+			throw new IllegalArgumentException("Request handler already registered: %s".formatted(clazz));
+	}
+
 	@Override
 	protected void onRawPacket(PacketMode mode, int type, int reqId, ByteBuffer buffer) {
 		if (mode == PacketMode.RESPONSE_FAILED) {
 			String message = BufferCodec.UTF8.decode(buffer);
-			CompletableFuture<?> task = requests.remove(reqId);
-			if (task != null) task.completeExceptionally(new RuntimeException(message));
+			PendingRequests.Pending<?> task = requests.remove(reqId);
+
+			if (task != null) {
+				task.markAnswered();
+				task.completeExceptionally(new RuntimeException(message));
+			}
 		} else {
-			BufferDecoder<?> decoder = decoders.get(type);
+			PacketType<?> packetType = getProtocol().byType(type);
 
-			if (decoder == null) {
+			if (packetType == null) {
 				onUnknownRawPacket(mode, type, reqId, buffer);
 				return;
 			} else {
-				Object data = decoder.decode(buffer);
-				List<Consumer<?>> callbacks = listeners.get(data.getClass());
-				if (callbacks != null) callbacks.forEach(c -> ((Consumer) c).accept(data));
-				onPacket(mode, reqId, data);
-
-				switch (mode) {
-				case NOTIFY:
-					onNotification(data);
-					break;
-				case REQUEST: {
-					RequestImpl request = new RequestImpl(data, reqId);
-
-					try {
-						onRequest(request);
-					} catch (Throwable t) {
-						t.printStackTrace();
-						request.responseFailure(t.getMessage());
-					}
-
-					break;
-				}
-				case RESPONSE_SUCCEED: {
-					CompletableFuture<?> task = requests.remove(reqId);
-					if (task != null) ((CompletableFuture) task).complete(data);
-					break;
-				}
-				default:
-					break;
+				handlePacket(mode, reqId, packetType.decoder().decode(buffer));
+			}
+		}
+	}
+
+	@Override
+	protected void onRawPacketBatch(PacketBatch batch) {
+		Protocol protocol = getProtocol();
+
+		try {
+			for (int i = 0; i < batch.size() && !isClosed(); i++) {
+				PacketMode mode = batch.mode(i);
+				PacketType<?> packetType = mode == PacketMode.NOTIFY ? protocol.byType(batch.type(i)) : null;
+
+				if (packetType != null) {
+					Object data = packetType.decoder().decode(batch.buffer(i));
+					firePacketListeners(mode, batch.reqId(i), data);
+					notificationBatch.add(data);
+				} else {
+					flushNotificationBatch();
+					onRawPacket(mode, batch.type(i), batch.reqId(i), batch.buffer(i));
 				}
 			}
+
+			flushNotificationBatch();
+		} finally {
+			notificationBatch.clear();
+		}
+	}
+
+	private void flushNotificationBatch() {
+		if (notificationBatch.isEmpty()) return;
+		onNotificationBatch(notificationBatchView);
+		notificationBatch.clear();
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private void firePacketListeners(PacketMode mode, int reqId, Object data) {
+		if (listeners != null) {
+			List<Consumer<?>> callbacks = listeners.get(data.getClass());
+			if (callbacks != null) callbacks.forEach(c -> ((Consumer) c).accept(data));
+
+			// Listeners of registered supertype, like sealed interface of packet
+			PacketType<?> packetType = getProtocol().resolve(data.getClass());
+			callbacks = packetType != null && packetType.clazz() != data.getClass() ? listeners.get(packetType.clazz()) : null;
+			if (callbacks != null) callbacks.forEach(c -> ((Consumer) c).accept(data));
 		}
+		onPacket(mode, reqId, data);
+	}
+
+	/**
+	 * <p>
+	 * Handle decoded packet. This is called for all packets except failed
+	 * responses.
+	 * </p>
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	void handlePacket(PacketMode mode, int reqId, Object data) {
+		firePacketListeners(mode, reqId, data);
+
+		switch (mode) {
+		case NOTIFY:
+			onNotification(data);
+			break;
+		case REQUEST: {
+			RequestImpl request = new RequestImpl(data, reqId);
+			KeyedExecutor executor = requestExecutor;
+
+			if (executor == null) {
+				dispatchRequest(request);
+				break;
+			}
+
+			Object key;
+
+			try {
+				PacketType<?> packetType = getProtocol().resolve(data.getClass());
+				Function<Object, ?> keyExtractor = packetType != null ? (Function<Object, ?>) packetType.key() : null;
+				key = keyExtractor != null ? keyExtractor.apply(data) : null;
+			} catch (Throwable t) {
+				// Only this request is affected, not the connection
+				request.responseFailure(failureMessage(t));
+				break;
+			}
+
+			try {
+				// Requests without key are not ordered, so they don't share a stripe
+				if (key != null) executor.execute(key, request);
+				else executor.executor().execute(request);
+			} catch (RejectedExecutionException e) {
+				request.responseFailure("Request rejected");
+			}
+
+			break;
+		}
+		case RESPONSE_SUCCEED: {
+			PendingRequests.Pending<?> task = requests.remove(reqId);
+
+			if (task != null) {
+				task.markAnswered();
+				((CompletableFuture) task).complete(data);
+			}
+
+			break;
+		}
+		default:
+			break;
+		}
+	}
+
+	private void dispatchRequest(RequestImpl request) {
+		try {
+			Function<Object, ? extends CompletionStage<?>> handler = findRequestHandler(request.packet);
+
+			if (handler != null) {
+				CompletionStage<?> stage = Objects.requireNonNull(handler.apply(request.packet), "Request handler returned null");
+				stage.whenComplete((response, t) -> {
+					if (t != null) request.responseFailure(failureMessage(t));
+					else if (response == null) request.responseFailure("Request handler completed with null");
+					else request.responseSuccess(response);
+				});
+			} else {
+				onRequest(request);
+			}
+		} catch (Throwable t) {
+			t.printStackTrace();
+			request.responseFailure(failureMessage(t));
+		}
+	}
+
+	private Function<Object, ? extends CompletionStage<?>> findRequestHandler(Object data) {
+		if (requestHandlers == null) return null;
+		Function<Object, ? extends CompletionStage<?>> handler = requestHandlers.get(data.getClass());
+		if (handler != null) return handler;
+		PacketType<?> packetType = getProtocol().resolve(data.getClass());
+		return packetType != null ? requestHandlers.get(packetType.clazz()) : null;
+	}
+
+	private static String failureMessage(Throwable t) {
+		if (t instanceof CompletionException && t.getCause() != null) t = t.getCause();
+		return t.getMessage() != null ? t.getMessage() : t.getClass().getName();
+	}
+
+	/**
+	 * <p>
+	 * Check whether the packet queued in this connection can be handed to receiver
+	 * without encoding. That is only when the packet is queued with the encoder
+	 * registered for its class, and receiver maps the numerical ID to the same
+	 * class with the same encoder and decoder, so decoding the encoded packet would
+	 * give receiver the same kind of object.
+	 * </p>
+	 */
+	boolean isDirectPacket(int type, BufferEncoder<?> encoder, Object value, TransporterConnection receiver) {
+		PacketType<?> sent = value != null ? getProtocol().resolve(value.getClass()) : null;
+		if (sent == null || sent.type() != type || sent.encoder() != encoder) return false;
+		PacketType<?> received = receiver.getProtocol().byType(type);
+		if (received == sent) return true;
+		return received != null
+			&& received.clazz() == sent.clazz()
+			&& received.encoder() == sent.encoder()
+			&& received.decoder() == sent.decoder();
+	}
+
+	/**
+	 * <p>
+	 * Get the protocol of this connection, including packet types registered with
+	 * {@link #registerPacket(int, Class, BufferCodec)}.
+	 * </p>
+	 * 
+	 * @return The protocol.
+	 */
+	public Protocol getProtocol() {
+		Protocol protocol = this.protocol;
+		return protocol != null ? protocol : buildProtocol();
+	}
+
+	private synchronized Protocol buildProtocol() {
+		if (protocol == null) {
+			// Packets registered in constructor are usually the same for all connections
+			// of the class, so they share the protocol and its lookup caches. Packets
+			// registered later are specific to this connection.
+			AtomicReference<RegisteredProtocol> shared = protocolBuilt ? null : REGISTERED_PROTOCOLS.get(getClass());
+			RegisteredProtocol registered = shared != null ? shared.get() : null;
+
+			if (registered != null && registered.base == baseProtocol && registered.types.equals(registeredTypes)) {
+				protocol = registered.protocol;
+			} else {
+				protocol = protocolBuilder.build();
+				if (shared != null) shared.set(new RegisteredProtocol(baseProtocol, List.copyOf(registeredTypes), protocol));
+			}
+
+			protocolBuilt = true;
+			baseProtocol = null;
+			protocolBuilder = null;
+			registeredTypes = null;
+		}
+
+		return protocol;
+	}
+
+	@SuppressWarnings("unchecked")
+	private PacketType<Object> packetTypeOf(Object data) {
+		PacketType<Object> packetType = (PacketType<Object>) getProtocol().resolve(data.getClass());
+		if (packetType == null) throw new IllegalArgumentException("Class not registered: %s".formatted(data.getClass()));
+		return packetType;
+	}
+
+	/**
+	 * <p>
+	 * Set the executor for handling requests from peer. By default (or when set to
+	 * {@code null}), {@link #onRequest(Request)} is called on the thread that reads
+	 * this connection, so a slow request handler delays all packets after it. With
+	 * an executor, each request is handled as a separate task and the response is
+	 * queued from the task, so requests may complete out of order and
+	 * {@link #onRequest(Request)} must be thread-safe.
+	 * </p>
+	 * {@snippet :
+	 * // A virtual thread for each request
+	 * connection.setRequestExecutor(Executors.newVirtualThreadPerTaskExecutor());
+	 * }
+	 * <p>
+	 * Requests of packet types with key (see {@link Protocol.Builder#key(Class, Function)})
+	 * are handled one after another for each key, in the order they were
+	 * received. Requests with different keys are still handled concurrently.
+	 * </p>
+	 * <p>
+	 * Requests rejected by executor are responded with failure. Notifications,
+	 * responses and packet listeners are still handled on reading thread.
+	 * </p>
+	 * 
+	 * @param executor The executor, or {@code null} to handle requests on reading
+	 *                 thread.
+	 */
+	public void setRequestExecutor(Executor executor) {
+		this.requestExecutor = executor != null
+			? new KeyedExecutor(executor, REQUEST_KEY_STRIPES, task -> ((RequestImpl) task).responseFailure("Request rejected"))
+			: null;
+	}
+
+	/**
+	 * <p>
+	 * Get the executor for handling requests from peer.
+	 * </p>
+	 * 
+	 * @return The executor, or {@code null} if requests are handled on reading
+	 *         thread.
+	 * @see #setRequestExecutor(Executor)
+	 */
+	public Executor getRequestExecutor() {
+		KeyedExecutor executor = requestExecutor;
+		return executor != null ? executor.executor() : null;
+	}
+
+	/**
+	 * <p>
+	 * Set the default timeout for requests queued with
+	 * {@link #queueRequest(Object)}. Requests without response after timeout are
+	 * completed with {@link TimeoutException}, so a peer that drops requests does
+	 * not leak them. Timeouts are scheduled in {@link #getTimingWheel()}.
+	 * </p>
+	 * 
+	 * @param timeout The request timeout, or {@link Duration#ZERO} to wait until
+	 *                connection is closed (the default).
+	 */
+	public void setRequestTimeout(Duration timeout) { this.requestTimeoutNanos = toTimeoutNanos(timeout); }
+
+	/**
+	 * <p>
+	 * Get the default timeout for requests.
+	 * </p>
+	 * 
+	 * @return The request timeout, or {@link Duration#ZERO} if requests wait until
+	 *         connection is closed.
+	 * @see #setRequestTimeout(Duration)
+	 */
+	public Duration getRequestTimeout() { return Duration.ofNanos(requestTimeoutNanos); }
+
+	/**
+	 * <p>
+	 * Set the limiter of requests in flight, which are requests sent to peer that
+	 * are still waiting for response. When the limit is reached, requests queued
+	 * with {@link #queueRequest(Object)} either wait in a local queue until other
+	 * requests complete, or fail right away with
+	 * {@link RejectedExecutionException}, so overloading peer does not build up
+	 * queues on both sides. Request timeout includes the time spent waiting in
+	 * local queue.
+	 * </p>
+	 * {@snippet :
+	 * // Find the limit from round-trip time, queue requests above the limit
+	 * connection.setRequestLimiter(RequestLimiter.gradient(20, 1000), true);
+	 * }
+	 * <p>
+	 * Only requests sent while a limiter is set are counted as in flight.
+	 * </p>
+	 * 
+	 * @param limiter     The limiter, or {@code null} to send all requests right
+	 *                    away (the default).
+	 * @param queueExcess {@code true} to queue requests above the limit,
+	 *                    {@code false} to reject them.
+	 */
+	public void setRequestLimiter(RequestLimiter limiter, boolean queueExcess) {
+		this.queueExcessRequests = queueExcess;
+		this.requestLimiter = limiter;
+		drainWaitingRequests();
+	}
+
+	/**
+	 * <p>
+	 * Get the limiter of requests in flight.
+	 * </p>
+	 * 
+	 * @return The limiter, or {@code null} if requests are not limited.
+	 * @see #setRequestLimiter(RequestLimiter, boolean)
+	 */
+	public RequestLimiter getRequestLimiter() { return requestLimiter; }
+
+	/**
+	 * <p>
+	 * Get the current limit of requests in flight.
+	 * </p>
+	 * 
+	 * @return The limit, or {@link Integer#MAX_VALUE} if requests are not limited.
+	 * @see #setRequestLimiter(RequestLimiter, boolean)
+	 */
+	public int getRequestLimit() {
+		RequestLimiter limiter = requestLimiter;
+		return limiter != null ? limiter.limit() : Integer.MAX_VALUE;
+	}
+
+	/**
+	 * <p>
+	 * Get the number of requests in flight that were sent while a limiter is set.
+	 * </p>
+	 * 
+	 * @return The number of requests.
+	 * @see #setRequestLimiter(RequestLimiter, boolean)
+	 */
+	public int getInFlightRequests() { return inFlightRequests.get(); }
+
+	/**
+	 * <p>
+	 * Get the timing wheel for scheduling request timeouts. The default
+	 * implementation returns {@link TimingWheel#shared()}.
+	 * </p>
+	 * 
+	 * @return The timing wheel.
+	 */
+	protected TimingWheel getTimingWheel() { return TimingWheel.shared(); }
+
+	private static long toTimeoutNanos(Duration timeout) {
+		Objects.requireNonNull(timeout, "'timeout' is null");
+		if (timeout.isNegative()) throw new IllegalArgumentException("Negative timeout: %s".formatted(timeout));
+		return timeout.compareTo(Duration.ofNanos(Long.MAX_VALUE)) >= 0 ? Long.MAX_VALUE : timeout.toNanos();
 	}
 
 	@Override
 	protected void onClose(boolean remote, Throwable error) {
 		Throwable t = new IOException(remote ? "Connection closed by peer" : "Connection closed", error);
-		List.copyOf(requests.values()).forEach(r -> r.completeExceptionally(t));
-		requests.clear();
+		requests.failAll(t);
+		waitingRequests.clear();
 	}
 
 	private void queuePacket(PacketMode mode, int reqId, Object data) {
-		BufferEncoder<?> encoder = encoders.get(data.getClass());
-		if (encoder == null) throw new IllegalArgumentException("Class not registered: %".formatted(data.getClass()));
-		int id = packetIds.get(data.getClass());
-		queueRawPacketWrite(mode, id, reqId, buffer -> encoder.castAndEncode(data, buffer));
+		PacketType<Object> packetType = packetTypeOf(data);
+		queueRawPacketWrite(mode, packetType.type(), reqId, packetType.encoder(), data);
+	}
+
+	private void queuePacket(PacketMode mode, int reqId, int lane, Object data) {
+		PacketType<Object> packetType = packetTypeOf(data);
+		queueRawPacketWrite(mode, packetType.type(), reqId, lane, packetType.encoder(), data);
+	}
+
+	private CompletableFuture<Void> queuePacketAsync(PacketMode mode, int reqId, Object data) {
+		PacketType<Object> packetType = packetTypeOf(data);
+		return queueRawPacketWriteAsync(mode, packetType.type(), reqId, packetType.encoder(), data);
 	}
 
 	/**
@@ -265,22 +718,174 @@ public abstract class TransporterConnection extends RawConnection {
 
 	/**
 	 * <p>
-	 * Queue an outgoing request to peer.
+	 * Queue an outgoing notification to specific outgoing lane. This can be used
+	 * to let small control notifications bypass bulk notifications.
+	 * </p>
+	 * 
+	 * @param data The notification packet.
+	 * @param lane The outgoing lane.
+	 * @see #setWriteScheduler(WriteScheduler)
+	 */
+	protected void queueNotification(Object data, int lane) {
+		Objects.requireNonNull(data, "'data' is null");
+		queuePacket(PacketMode.NOTIFY, 0, lane, data);
+	}
+
+	/**
+	 * <p>
+	 * Queue an outgoing notification once the connection is writable.
+	 * </p>
+	 * 
+	 * @param data The notification packet.
+	 * @return The task that will be completed when the notification is queued.
+	 * @see #setWriteWatermarks(int, int)
+	 */
+	protected CompletableFuture<Void> queueNotificationAsync(Object data) {
+		Objects.requireNonNull(data, "'data' is null");
+		return queuePacketAsync(PacketMode.NOTIFY, 0, data);
+	}
+
+	/**
+	 * <p>
+	 * Queue an outgoing request to peer, with the default request timeout (see
+	 * {@link #setRequestTimeout(Duration)}).
 	 * </p>
 	 * 
 	 * @param <T>     Type of response packet.
 	 * @param request The request packet.
 	 * @return The task that will be completed when received response from peer.
+	 * @throws IllegalStateException If there are too many requests waiting for
+	 *                               response.
 	 */
 	protected <T> CompletableFuture<T> queueRequest(Object request) {
+		return queueRequest(request, requestTimeoutNanos);
+	}
+
+	/**
+	 * <p>
+	 * Queue an outgoing request to peer. If there is no response after timeout,
+	 * the task is completed with {@link TimeoutException} and a late response
+	 * will be ignored.
+	 * </p>
+	 * 
+	 * @param <T>     Type of response packet.
+	 * @param request The request packet.
+	 * @param timeout The request timeout, or {@link Duration#ZERO} to wait until
+	 *                connection is closed.
+	 * @return The task that will be completed when received response from peer.
+	 * @throws IllegalStateException If there are too many requests waiting for
+	 *                               response.
+	 * @see #setRequestLimiter(RequestLimiter, boolean)
+	 */
+	protected <T> CompletableFuture<T> queueRequest(Object request, Duration timeout) {
+		return queueRequest(request, toTimeoutNanos(timeout));
+	}
+
+	private <T> CompletableFuture<T> queueRequest(Object request, long timeoutNanos) {
 		Objects.requireNonNull(request, "'request' is null");
-		CompletableFuture<T> task = new CompletableFuture<>();
-		int reqId = reqIdCounter++;
-		requests.put(reqId, task);
-		queuePacket(PacketMode.REQUEST, reqId, request);
+		PendingRequests.Pending<T> task = requests.register();
+		int reqId = task.reqId();
+
+		if (timeoutNanos > 0L) task.setTimeout(getTimingWheel().schedule(() -> {
+			PendingRequests.Pending<?> expired = requests.remove(reqId);
+			if (expired == null) return;
+			expired.markAnswered();
+			expired.completeExceptionally(new TimeoutException(
+				"No response after %dms".formatted(TimeUnit.NANOSECONDS.toMillis(timeoutNanos))));
+		}, timeoutNanos, TimeUnit.NANOSECONDS));
+
+		RequestLimiter limiter = requestLimiter;
+
+		if (limiter == null) {
+			sendRequest(null, task, request);
+		} else if (queueExcessRequests) {
+			// Always queued, so that requests are sent in order they were queued
+			waitingRequests.offer(new WaitingRequest(task, request));
+			drainWaitingRequests();
+		} else if (tryAcquireRequest(limiter)) {
+			sendRequest(limiter, task, request);
+		} else if (requests.remove(reqId) != null) {
+			task.completeExceptionally(new RejectedExecutionException(
+				"Too many requests in flight (limit %d)".formatted(limiter.limit())));
+		}
+
+		// onClose() may have failed pending requests before this one is registered
+		if (isClosed() && requests.remove(task.reqId()) != null)
+			task.completeExceptionally(new IOException("Connection closed"));
 		return task;
 	}
 
+	private void sendRequest(RequestLimiter limiter, PendingRequests.Pending<?> task, Object request) {
+		if (limiter != null) {
+			long sentNanos = System.nanoTime();
+			int inFlight = inFlightRequests.get();
+			task.whenComplete((response, t) -> releaseRequest(limiter, sentNanos, inFlight, task, t));
+		}
+
+		try {
+			queuePacket(PacketMode.REQUEST, task.reqId(), request);
+		} catch (RuntimeException e) {
+			if (requests.remove(task.reqId()) != null) task.completeExceptionally(e);
+			throw e;
+		}
+	}
+
+	private boolean tryAcquireRequest(RequestLimiter limiter) {
+		while (true) {
+			int inFlight = inFlightRequests.get();
+			if (inFlight >= limiter.limit()) return false;
+			if (inFlightRequests.compareAndSet(inFlight, inFlight + 1)) return true;
+		}
+	}
+
+	private void releaseRequest(RequestLimiter limiter, long sentNanos, int inFlight, PendingRequests.Pending<?> task, Throwable t) {
+		inFlightRequests.decrementAndGet();
+
+		// Local failures like closing connection or failing to encode request say
+		// nothing about peer
+		if (task.isAnswered())
+			limiter.onSample(System.nanoTime() - sentNanos, inFlight, t instanceof TimeoutException);
+		drainWaitingRequests();
+	}
+
+	private void drainWaitingRequests() {
+		// Only one thread sends waiting requests at a time, so that they are sent in
+		// order. Callers that find another thread draining make it drain once more.
+		if (drainRequests.getAndIncrement() != 0) return;
+		int missed = 1;
+
+		do {
+			drainWaitingRequestsOnce();
+			missed = drainRequests.addAndGet(-missed);
+		} while (missed != 0);
+	}
+
+	private void drainWaitingRequestsOnce() {
+		while (!waitingRequests.isEmpty()) {
+			RequestLimiter limiter = requestLimiter;
+			if (limiter != null && !tryAcquireRequest(limiter)) return;
+			WaitingRequest waiting = waitingRequests.poll();
+
+			// Timed out or failed while waiting
+			if (waiting == null || waiting.task.isDone()) {
+				if (limiter != null) inFlightRequests.decrementAndGet();
+				continue;
+			}
+
+			try {
+				sendRequest(limiter, waiting.task, waiting.request);
+			} catch (RuntimeException e) {
+				// Task is already completed with the exception
+			}
+		}
+	}
+
+	private static record WaitingRequest(PendingRequests.Pending<?> task, Object request) {
+	}
+
+	private static record RegisteredProtocol(Protocol base, List<PacketType<?>> types, Protocol protocol) {
+	}
+
 	public static interface Request {
 		/**
 		 * <p>
@@ -291,7 +896,9 @@ public abstract class TransporterConnection extends RawConnection {
 
 		/**
 		 * <p>
-		 * Response to this request with success status.
+		 * Response to this request with success status. Only the first response is
+		 * sent to peer, so calling this after the request has been responded does
+		 * nothing. This method may be called from any thread.
 		 * </p>
 		 * 
 		 * @param data The response packet.
@@ -300,7 +907,9 @@ public abstract class TransporterConnection extends RawConnection {
 
 		/**
 		 * <p>
-		 * Response to this request with failure status.
+		 * Response to this request with failure status. Only the first response is
+		 * sent to peer, so calling this after the request has been responded does
+		 * nothing. This method may be called from any thread.
 		 * </p>
 		 * 
 		 * @param message The error message.
@@ -308,10 +917,10 @@ public abstract class TransporterConnection extends RawConnection {
 		void responseFailure(String message);
 	}
 
-	private class RequestImpl implements Request {
-		private Object packet;
-		private int reqId;
-		private boolean response = false;
+	private class RequestImpl implements Request, Runnable {
+		private final Object packet;
+		private final int reqId;
+		private final AtomicBoolean responded = new AtomicBoolean();
 
 		public RequestImpl(Object packet, int reqId) {
 			this.packet = packet;
@@ -323,17 +932,33 @@ public abstract class TransporterConnection extends RawConnection {
 			return packet;
 		}
 
+		@Override
+		public void run() {
+			dispatchRequest(this);
+		}
+
 		@Override
 		public void responseSuccess(Object data) {
-			if (response) return;
 			Objects.requireNonNull(data, "'data' is null");
-			queuePacket(PacketMode.RESPONSE_SUCCEED, reqId, data);
+			if (!responded.compareAndSet(false, true)) return;
+
+			try {
+				queuePacket(PacketMode.RESPONSE_SUCCEED, reqId, data);
+			} catch (RuntimeException e) {
+				// Peer is still waiting, so it must be told about the failure
+				queueFailure(failureMessage(e));
+				throw e;
+			}
 		}
 
 		@Override
 		public void responseFailure(String message) {
-			if (response) return;
 			Objects.requireNonNull(message, "'message' is null");
+			if (!responded.compareAndSet(false, true)) return;
+			queueFailure(message);
+		}
+
+		private void queueFailure(String message) {
 			queueRawPacketWrite(
 				PacketMode.RESPONSE_FAILED, 0, reqId,
 				buffer -> BufferCodec.UTF8.encode(message, buffer));
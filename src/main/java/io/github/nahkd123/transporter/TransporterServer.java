@@ -0,0 +1,233 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright © 2025 Tran Huu An
+ * 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the “Software”), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.github.nahkd123.transporter;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * <p>
+ * A multiplexing event loop that drives many {@link RawConnection} on a fixed
+ * number of I/O threads, each owning a {@link Selector}. Accepted (or
+ * registered) channels are assigned to I/O threads in round-robin manner and a
+ * connection is created for each channel using connection factory. Channels are
+ * always watched for incoming data, while write interest is only enabled when
+ * the connection have packets waiting to be written. The server installs
+ * {@linkplain RawConnection#setWakeupHook(Runnable) wakeup hook} on each
+ * connection, so packets queued from other threads are written without delay.
+ * </p>
+ * <p>
+ * The server can accept connections from multiple listeners, including TCP and
+ * Unix domain sockets. The server can also drive client connections through
+ * {@link #connect(SocketAddress)} or {@link #register(SocketChannel)}. Closing
+ * the server will close all listeners and connections.
+ * </p>
+ * {@snippet :
+ * TransporterServer<MyConnection> server = new TransporterServer<>(4, channel -> new MyConnection());
+ * server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 27272));
+ * server.bind(UnixDomainSocketAddress.of("my.sock"));
+ * }
+ * 
+ * @param <C> Type of connection.
+ */
+public class TransporterServer<C extends RawConnection> implements AutoCloseable {
+	private final Function<SocketChannel, C> factory;
+	private final IoLoop[] loops;
+	private final AtomicInteger nextLoop = new AtomicInteger();
+	private final List<ServerSocketChannel> listeners = new CopyOnWriteArrayList<>();
+	private volatile boolean closed = false;
+
+	/**
+	 * <p>
+	 * Create a new server with specified number of I/O threads.
+	 * </p>
+	 * 
+	 * @param threads The number of I/O threads.
+	 * @param factory The connection factory, which creates a new connection for
+	 *                each accepted or registered channel. The factory is called
+	 *                from I/O thread when accepting new channels.
+	 * @throws IOException If selectors can't be opened.
+	 */
+	public TransporterServer(int threads, Function<SocketChannel, C> factory) throws IOException {
+		if (threads <= 0) throw new IllegalArgumentException("Number of threads must be positive: %d".formatted(threads));
+		this.factory = Objects.requireNonNull(factory, "'factory' is null");
+		this.loops = new IoLoop[threads];
+
+		try {
+			for (int i = 0; i < threads; i++) loops[i] = new IoLoop("Transporter I/O #%d".formatted(i));
+		} catch (IOException e) {
+			for (IoLoop loop : loops) if (loop != null) loop.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * <p>
+	 * Open a new listener bound to specified address and accept connections from
+	 * it. Unix domain socket listener will be opened if the address is
+	 * {@link UnixDomainSocketAddress}.
+	 * </p>
+	 * 
+	 * @param address The address to bind.
+	 * @return The listener.
+	 * @throws IOException If the listener can't be opened.
+	 */
+	public ServerSocketChannel bind(SocketAddress address) throws IOException {
+		Objects.requireNonNull(address, "'address' is null");
+		ServerSocketChannel listener = address instanceof UnixDomainSocketAddress
+			? ServerSocketChannel.open(StandardProtocolFamily.UNIX)
+			: ServerSocketChannel.open();
+
+		try {
+			listener.bind(address);
+			listen(listener);
+			return listener;
+		} catch (IOException e) {
+			listener.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * <p>
+	 * Accept connections from bound listener. The listener will be configured to
+	 * non-blocking mode and will be closed when this server is closed.
+	 * </p>
+	 * 
+	 * @param listener The bound listener.
+	 * @throws IOException If the listener can't be configured.
+	 */
+	public void listen(ServerSocketChannel listener) throws IOException {
+		Objects.requireNonNull(listener, "'listener' is null");
+		ensureOpen();
+		listener.configureBlocking(false);
+		listeners.add(listener);
+		nextLoop().listen(listener, this);
+	}
+
+	/**
+	 * <p>
+	 * Connect to specified address and drive the connection with this server's I/O
+	 * threads.
+	 * </p>
+	 * 
+	 * @param address The address to connect.
+	 * @return The connection.
+	 * @throws IOException If failed to connect.
+	 */
+	public C connect(SocketAddress address) throws IOException {
+		Objects.requireNonNull(address, "'address' is null");
+		return register(SocketChannel.open(address));
+	}
+
+	/**
+	 * <p>
+	 * Drive an already connected channel with this server's I/O threads. The
+	 * channel will be configured to non-blocking mode.
+	 * </p>
+	 * 
+	 * @param channel The connected channel.
+	 * @return The connection created from connection factory.
+	 * @throws IOException If the channel can't be configured.
+	 */
+	public C register(SocketChannel channel) throws IOException {
+		Objects.requireNonNull(channel, "'channel' is null");
+
+		try {
+			ensureOpen();
+			channel.configureBlocking(false);
+			C connection = factory.apply(channel);
+			nextLoop().attach(channel, connection);
+			return connection;
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * <p>
+	 * Set the error handler, which will be called from I/O thread when an error
+	 * is not associated with any connection, like failing to accept or register
+	 * channels. If an I/O thread fails to select channels, all connections driven
+	 * by that thread are closed with the error before it is passed to handler. By
+	 * default, such errors are ignored.
+	 * </p>
+	 * 
+	 * @param errorHandler The error handler, or {@code null} to remove the handler.
+	 */
+	public void setErrorHandler(Consumer<? super Throwable> errorHandler) {
+		for (IoLoop loop : loops) loop.setErrorHandler(errorHandler);
+	}
+
+	private IoLoop nextLoop() {
+		return loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+	}
+
+	private void ensureOpen() throws IOException {
+		if (closed) throw new IOException("Server is closed");
+	}
+
+	/**
+	 * <p>
+	 * Check whether this server is closed.
+	 * </p>
+	 * 
+	 * @return Whether the server is closed.
+	 */
+	public boolean isClosed() { return closed; }
+
+	/**
+	 * <p>
+	 * Close all listeners and connections, then stop all I/O threads.
+	 * </p>
+	 */
+	@Override
+	public void close() {
+		if (closed) return;
+		closed = true;
+		listeners.forEach(IoLoop::closeQuietly);
+		listeners.clear();
+
+		for (IoLoop loop : loops) if (loop != null) loop.close();
+
+		try {
+			for (IoLoop loop : loops) if (loop != null) loop.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
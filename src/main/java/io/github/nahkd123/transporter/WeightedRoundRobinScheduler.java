@@ -0,0 +1,58 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright © 2025 Tran Huu An
+ * 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the “Software”), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.github.nahkd123.transporter;
+
+final class WeightedRoundRobinScheduler extends StrictPriorityScheduler {
+	private final int[] weights;
+	private int lane = 0;
+	private int credit;
+
+	WeightedRoundRobinScheduler(int[] weights) {
+		super(weights.length);
+		for (int weight : weights)
+			if (weight <= 0) throw new IllegalArgumentException("Weight must be positive: %d".formatted(weight));
+		this.weights = weights.clone();
+		this.credit = this.weights[0];
+	}
+
+	@Override
+	public int select(int readyLanes) {
+		// Each lane is visited at most once before coming back to a ready lane
+		for (int i = 0; i <= weights.length; i++) {
+			// Credit is spent in onDequeued(), as selected packet may be put back
+			if (credit > 0 && (readyLanes & (1 << lane)) != 0) return lane;
+
+			lane = (lane + 1) % weights.length;
+			credit = weights[lane];
+		}
+
+		return Integer.numberOfTrailingZeros(readyLanes);
+	}
+
+	@Override
+	public void onDequeued(int lane) {
+		if (lane == this.lane && credit > 0) credit--;
+	}
+}
@@ -0,0 +1,146 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright © 2025 Tran Huu An
+ * 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the “Software”), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.github.nahkd123.transporter;
+
+import io.github.nahkd123.transporter.RawConnection.PacketMode;
+
+/**
+ * <p>
+ * Write scheduler decides the order of outgoing packets when there are packets
+ * waiting in more than one lane. Each connection has a number of outgoing lanes;
+ * packets in the same lane are always written in the order they were queued,
+ * while packets in different lanes are written in the order chosen by
+ * {@link #select(int)}. This allows responses and small control packets to
+ * bypass bulk traffic.
+ * </p>
+ * {@snippet :
+ * // Responses first, then requests, then notifications
+ * connection.setWriteScheduler(WriteScheduler.strictPriority());
+ * }
+ * <p>
+ * Schedulers may be stateful, so each connection needs its own instance.
+ * {@link #select(int)} and {@link #onDequeued(int)} are only called from the
+ * thread that writes the connection, while {@link #laneOf(PacketMode)} may be
+ * called from any thread.
+ * </p>
+ * 
+ * @see RawConnection#setWriteScheduler(WriteScheduler)
+ */
+public interface WriteScheduler {
+	/**
+	 * <p>
+	 * The maximum number of lanes a scheduler can have.
+	 * </p>
+	 */
+	int MAX_LANES = 32;
+
+	/**
+	 * <p>
+	 * Get the number of outgoing lanes.
+	 * </p>
+	 * 
+	 * @return The number of lanes, between 1 and {@link #MAX_LANES}.
+	 */
+	int lanes();
+
+	/**
+	 * <p>
+	 * Get the lane for packets that are queued without explicit lane.
+	 * </p>
+	 * 
+	 * @param mode The packet mode.
+	 * @return The lane index.
+	 */
+	int laneOf(PacketMode mode);
+
+	/**
+	 * <p>
+	 * Select the lane to write the next packet from.
+	 * </p>
+	 * 
+	 * @param readyLanes Bit mask of lanes that have packets waiting to be written,
+	 *                   where bit {@code i} is set if lane {@code i} is not empty.
+	 *                   Always non-zero.
+	 * @return The lane index, which must be one of the ready lanes.
+	 */
+	int select(int readyLanes);
+
+	/**
+	 * <p>
+	 * Called when a packet from the lane returned by {@link #select(int)} is taken
+	 * from the queue. A selected packet may not be taken right away, like when it
+	 * does not fit in the rest of write buffer, in which case {@link #select(int)}
+	 * is called again for it later. Schedulers that account packets written from
+	 * each lane should do so here instead of in {@link #select(int)}.
+	 * </p>
+	 * 
+	 * @param lane The lane index.
+	 */
+	default void onDequeued(int lane) {}
+
+	/**
+	 * <p>
+	 * Create a scheduler with a single lane, where all packets are written in the
+	 * order they were queued. This is the default scheduler.
+	 * </p>
+	 * 
+	 * @return The scheduler.
+	 */
+	static WriteScheduler fifo() {
+		return FifoScheduler.INSTANCE;
+	}
+
+	/**
+	 * <p>
+	 * Create a scheduler with 3 lanes: responses (lane 0), requests (lane 1) and
+	 * notifications (lane 2). Packets in lower lane are always written before
+	 * packets in higher lanes.
+	 * </p>
+	 * 
+	 * @return The scheduler.
+	 */
+	static WriteScheduler strictPriority() {
+		return new StrictPriorityScheduler(3);
+	}
+
+	/**
+	 * <p>
+	 * Create a scheduler with one lane for each weight. Lanes are visited in round
+	 * robin, and each visit writes up to weight packets from the lane. Packet modes
+	 * are mapped to lanes the same way as {@link #strictPriority()}, clamped to the
+	 * last lane.
+	 * </p>
+	 * {@snippet :
+	 * // Up to 8 responses, 4 requests and 1 notification per round
+	 * WriteScheduler.weightedRoundRobin(8, 4, 1);
+	 * }
+	 * 
+	 * @param weights The weight of each lane, all must be positive.
+	 * @return The scheduler.
+	 */
+	static WriteScheduler weightedRoundRobin(int... weights) {
+		return new WeightedRoundRobinScheduler(weights);
+	}
+}
@@ -0,0 +1,80 @@
+package io.github.nahkd123.transporter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import io.github.nahkd123.transporter.RawConnectionTest.MemoryChannel;
+import io.github.nahkd123.transporter.TransporterConnectionTest.MyConnection;
+
+class AsynchronousDriverTest {
+	@Test
+	void test() throws IOException, InterruptedException {
+		AsynchronousChannelGroup group = AsynchronousChannelGroup.withFixedThreadPool(2, Thread.ofPlatform().factory());
+		List<MyConnection> accepted = new CopyOnWriteArrayList<>();
+		CompletableFuture<MyConnection> serverTask = new CompletableFuture<>();
+
+		try (AsynchronousServerSocketChannel listener = AsynchronousServerSocketChannel.open(group)) {
+			listener.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			AsynchronousDriver.accept(listener, channel -> {
+				MyConnection connection = new MyConnection(new MemoryChannel());
+				accepted.add(connection);
+				serverTask.complete(connection);
+				return connection;
+			});
+
+			MyConnection client = AsynchronousDriver
+				.connect(group, listener.getLocalAddress(), channel -> new MyConnection(new MemoryChannel()))
+				.join();
+			MyConnection server = serverTask.join();
+			for (int i = 0; i < 100; i++) assertEquals(i, client.ping(i));
+			assertEquals(727, server.ping(727));
+
+			client.close();
+			client.closeTask.join();
+			server.closeTask.join();
+			assertTrue(server.isClosed());
+			assertEquals(1, accepted.size());
+		} finally {
+			group.shutdownNow();
+			group.awaitTermination(5L, TimeUnit.SECONDS);
+		}
+	}
+
+	@Test
+	void testFlushDeadline() throws IOException, InterruptedException {
+		AsynchronousChannelGroup group = AsynchronousChannelGroup.withFixedThreadPool(2, Thread.ofPlatform().factory());
+
+		try (AsynchronousServerSocketChannel listener = AsynchronousServerSocketChannel.open(group)) {
+			listener.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			AsynchronousDriver.accept(listener, channel -> {
+				MyConnection connection = new MyConnection(new MemoryChannel());
+				connection.setFlushPolicy(FlushPolicy.coalesce(65536, Duration.ofMillis(5L)));
+				return connection;
+			});
+
+			MyConnection client = AsynchronousDriver
+				.connect(group, listener.getLocalAddress(), channel -> new MyConnection(new MemoryChannel()))
+				.join();
+
+			// Responses are held by server until deadline
+			for (int i = 0; i < 10; i++) assertEquals(i, client.ping(i));
+			client.close();
+		} finally {
+			group.shutdownNow();
+			group.awaitTermination(5L, TimeUnit.SECONDS);
+		}
+	}
+}
@@ -0,0 +1,91 @@
+package io.github.nahkd123.transporter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import io.github.nahkd123.transporter.RawConnectionTest.MemoryChannel;
+
+class BufferPoolTest {
+	@Test
+	void testLease() {
+		BufferPool pool = new BufferPool(4, 256, 1024);
+		ByteBuffer a = pool.lease(100);
+		ByteBuffer b = pool.lease(1000);
+		assertEquals(256, a.capacity());
+		assertEquals(1024, b.capacity());
+		assertEquals(2, pool.getLeasedBuffers());
+		assertEquals(6, pool.getIdleBuffers());
+
+		pool.release(a);
+		pool.release(b);
+		assertEquals(0, pool.getLeasedBuffers());
+		assertEquals(8, pool.getIdleBuffers());
+		assertEquals(2, pool.getHighWaterMark());
+		assertThrows(IllegalArgumentException.class, () -> pool.lease(2048));
+		assertThrows(IllegalArgumentException.class, () -> pool.release(ByteBuffer.allocate(256)));
+	}
+
+	@Test
+	void testDoubleRelease() {
+		BufferPool pool = new BufferPool(4, 256);
+		ByteBuffer a = pool.lease(256);
+		pool.release(a);
+		assertThrows(IllegalArgumentException.class, () -> pool.release(a));
+		assertThrows(IllegalArgumentException.class, () -> pool.release(ByteBuffer.allocateDirect(256)));
+		assertEquals(0, pool.getLeasedBuffers());
+		assertEquals(4, pool.getIdleBuffers());
+
+		// Every idle buffer is handed out once
+		Set<ByteBuffer> leased = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (int i = 0; i < 4; i++) assertTrue(leased.add(pool.lease(256)));
+		assertEquals(0, pool.getIdleBuffers());
+	}
+
+	@Test
+	void testConnectionLeasing() throws IOException {
+		BufferPool pool = new BufferPool(4, 256);
+		MemoryChannel channel = new MemoryChannel();
+		RawConnectionTest.MyConnection sender = new PooledConnection(pool);
+		RawConnectionTest.MyConnection receiver = new PooledConnection(pool);
+
+		for (int i = 0; i < 10; i++) sender.notify(0, i);
+		sender.channelWrite(channel);
+		assertEquals(0, pool.getLeasedBuffers());
+		receiver.channelRead(channel);
+		assertEquals(0, pool.getLeasedBuffers());
+		assertEquals(10, receiver.received.size());
+
+		// Partial packet is kept in leased buffer
+		channel.data.compact().putShort((short) 0).flip();
+		receiver.channelRead(channel);
+		assertEquals(1, pool.getLeasedBuffers());
+	}
+
+	static class PooledConnection extends RawConnectionTest.MyConnection {
+		BufferPool pool;
+
+		PooledConnection(BufferPool pool) {
+			this.pool = pool;
+		}
+
+		@Override
+		protected ByteBuffer createConnectionBuffer() {
+			return pool.lease(256);
+		}
+
+		@Override
+		protected boolean releaseConnectionBuffer(ByteBuffer buffer) {
+			pool.release(buffer);
+			return true;
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package io.github.nahkd123.transporter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import io.github.nahkd123.transporter.TransporterConnectionTest.MyConnection;
+
+class DuplexDriverTest {
+	static class CountingConnection extends MyConnection {
+		AtomicInteger closeCalls = new AtomicInteger();
+
+		CountingConnection(ByteChannel channel) {
+			super(channel);
+		}
+
+		@Override
+		protected void onClose(boolean remote, Throwable error) {
+			closeCalls.incrementAndGet();
+			super.onClose(remote, error);
+		}
+	}
+
+	@Test
+	void test() throws IOException {
+		Path socketPath = Path.of(getClass().getName());
+		Files.deleteIfExists(socketPath);
+		UnixDomainSocketAddress address = UnixDomainSocketAddress.of(socketPath);
+
+		try (ServerSocketChannel listener = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+			listener.bind(address);
+			SocketChannel clientChannel = SocketChannel.open(address);
+			SocketChannel serverChannel = listener.accept();
+			CountingConnection client = DuplexDriver.drive(clientChannel, new CountingConnection(clientChannel));
+			CountingConnection server = DuplexDriver.drive(serverChannel, new CountingConnection(serverChannel));
+
+			// Both sides read and write at the same time
+			CompletableFuture<Void> serverPings = CompletableFuture.runAsync(() -> {
+				for (int i = 0; i < 500; i++) assertEquals(i, server.ping(i));
+			});
+			for (int i = 0; i < 500; i++) assertEquals(1000 + i, client.ping(1000 + i));
+			serverPings.join();
+
+			// Closing from both sides must still call onClose() once per connection
+			CompletableFuture<Void> serverClose = CompletableFuture.runAsync(server::close);
+			client.close();
+			serverClose.join();
+			client.closeTask.join();
+			server.closeTask.join();
+			assertTrue(client.isClosed());
+			assertTrue(server.isClosed());
+			assertEquals(1, client.closeCalls.get());
+			assertEquals(1, server.closeCalls.get());
+		} finally {
+			Files.deleteIfExists(socketPath);
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package io.github.nahkd123.transporter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class KeyedExecutorTest {
+	@Test
+	void testOrderPerKey() throws InterruptedException {
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		KeyedExecutor executor = new KeyedExecutor(pool, 16, task -> fail("Rejected"));
+		List<List<Integer>> results = new ArrayList<>();
+		for (int key = 0; key < 8; key++) results.add(Collections.synchronizedList(new ArrayList<>()));
+		CountDownLatch done = new CountDownLatch(8 * 1000);
+
+		for (int i = 0; i < 1000; i++) {
+			for (int key = 0; key < 8; key++) {
+				List<Integer> result = results.get(key);
+				int value = i;
+				executor.execute(key, () -> {
+					result.add(value);
+					done.countDown();
+				});
+			}
+		}
+
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		pool.shutdown();
+
+		for (List<Integer> result : results) {
+			assertEquals(1000, result.size());
+			for (int i = 0; i < 1000; i++) assertEquals(i, result.get(i));
+		}
+	}
+
+	@Test
+	void testConcurrentKeys() throws InterruptedException {
+		ExecutorService pool = Executors.newFixedThreadPool(2);
+		KeyedExecutor executor = new KeyedExecutor(pool, 16, task -> fail("Rejected"));
+		CountDownLatch blocked = new CountDownLatch(1);
+		CountDownLatch other = new CountDownLatch(1);
+
+		// Key 1 waits for key 2, which would never run if keys were serialized
+		executor.execute(1, () -> {
+			try {
+				blocked.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		executor.execute(2, () -> {
+			other.countDown();
+			blocked.countDown();
+		});
+
+		assertTrue(other.await(5, TimeUnit.SECONDS));
+		pool.shutdown();
+	}
+
+	@Test
+	void testRejected() throws InterruptedException {
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(1));
+		List<Runnable> rejected = new ArrayList<>();
+		KeyedExecutor executor = new KeyedExecutor(pool, 16, rejected::add);
+		CountDownLatch release = new CountDownLatch(1);
+		Thread caller = Thread.currentThread();
+		List<Thread> ranOn = Collections.synchronizedList(new ArrayList<>());
+
+		// Saturate the pool: one running task and one waiting task
+		executor.execute(1, () -> {
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		executor.execute(2, () -> ranOn.add(Thread.currentThread()));
+
+		Runnable task = () -> ranOn.add(Thread.currentThread());
+		executor.execute(3, task);
+		assertEquals(List.of(task), rejected);
+
+		// Stripe is usable again once pool has room
+		release.countDown();
+		CountDownLatch done = new CountDownLatch(1);
+		while (true) {
+			rejected.clear();
+			executor.execute(3, done::countDown);
+			if (rejected.isEmpty()) break;
+			Thread.sleep(1L);
+		}
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		pool.shutdown();
+		assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+		assertFalse(ranOn.contains(caller));
+		assertEquals(1, ranOn.size());
+	}
+}
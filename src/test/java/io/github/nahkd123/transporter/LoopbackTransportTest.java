@@ -0,0 +1,92 @@
+package io.github.nahkd123.transporter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.Test;
+
+import io.github.nahkd123.transporter.RawConnectionTest.MemoryChannel;
+import io.github.nahkd123.transporter.TransporterConnectionTest.MyConnection;
+import io.github.nahkd123.transporter.TransporterConnectionTest.PingPacket;
+import io.github.nahkd123.transporter.serialize.BufferCodec;
+
+class LoopbackTransportTest {
+	static record BlobPacket(String data) {
+		static final BufferCodec<BlobPacket> CODEC = BufferCodec.UTF8.map(BlobPacket::new, BlobPacket::data);
+	}
+
+	static record NamePacket(String name) {
+		static final BufferCodec<NamePacket> CODEC = BufferCodec.UTF8.map(NamePacket::new, NamePacket::name);
+	}
+
+	@Test
+	void test() {
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			MyConnection a = new MyConnection(new MemoryChannel());
+			MyConnection b = new MyConnection(new MemoryChannel());
+			LoopbackTransport.link(a, b, executor);
+			assertEquals(42, a.ping(42));
+			assertEquals(727, b.ping(727));
+
+			// Packet object is handed over without encoding
+			CompletableFuture<PingPacket> received = new CompletableFuture<>();
+			b.registerPacketListener(PingPacket.class, received::complete);
+			PingPacket packet = new PingPacket(123);
+			a.queueNotification(packet);
+			assertSame(packet, received.join());
+
+			// Packet type unknown to peer goes through onUnknownRawPacket()
+			a.registerPacket(0x02, BlobPacket.class, BlobPacket.CODEC);
+			assertThrows(CompletionException.class, () -> a.queueRequest(new BlobPacket("hello")).join());
+			a.close();
+			a.closeTask.join();
+			b.closeTask.join();
+			assertTrue(b.isClosed());
+		}
+	}
+
+	@Test
+	void testDifferentPacketTypes() {
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			MyConnection a = new MyConnection(new MemoryChannel());
+			MyConnection b = new MyConnection(new MemoryChannel());
+			a.registerPacket(0x02, BlobPacket.class, BlobPacket.CODEC);
+			b.registerPacket(0x02, NamePacket.class, NamePacket.CODEC);
+			CompletableFuture<Object> received = new CompletableFuture<>();
+			b.registerPacketListener(NamePacket.class, received::complete);
+			LoopbackTransport.link(a, b, executor);
+
+			// Same ID but different class on each side, so packet must be decoded
+			a.queueNotification(new BlobPacket("hello"));
+			assertEquals(new NamePacket("hello"), received.join());
+			a.close();
+			b.closeTask.join();
+		}
+	}
+
+	@Test
+	void testValidateEncoding() {
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			MyConnection a = new MyConnection(new MemoryChannel());
+			MyConnection b = new MyConnection(new MemoryChannel());
+			a.registerPacket(0x02, BlobPacket.class, BlobPacket.CODEC);
+			b.registerPacket(0x02, BlobPacket.class, BlobPacket.CODEC);
+			LoopbackTransport.link(a, b, executor, true);
+			assertEquals(42, a.ping(42));
+
+			// Does not fit in a frame
+			a.queueNotification(new BlobPacket("x".repeat(70000)));
+			a.closeTask.join();
+			b.closeTask.join();
+			assertTrue(a.isClosed());
+			assertTrue(b.isClosed());
+		}
+	}
+}
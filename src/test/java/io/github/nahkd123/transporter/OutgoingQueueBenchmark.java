@@ -0,0 +1,95 @@
+package io.github.nahkd123.transporter;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.github.nahkd123.transporter.RawConnection.PacketMode;
+import io.github.nahkd123.transporter.serialize.BufferCodec;
+import io.github.nahkd123.transporter.serialize.BufferEncoder;
+
+/**
+ * <p>
+ * Compare {@link OutgoingQueue} against the previous queue, which allocated an
+ * {@code Outgoing} record, a queue node and a capturing lambda for each packet.
+ * Run with {@code -prof gc} to see the allocation rate:
+ * </p>
+ * {@snippet :
+ * mvn test-compile -Pbenchmark -Dbenchmark="OutgoingQueueBenchmark -prof gc"
+ * }
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OutgoingQueueBenchmark {
+	record Outgoing(PacketMode mode, int type, int reqId, Consumer<ByteBuffer> writer) {
+	}
+
+	@SuppressWarnings("unchecked")
+	private static final BufferEncoder<Object> ENCODER = (BufferEncoder<Object>) (BufferEncoder<?>) BufferCodec.I32;
+
+	@Param({ "1", "64" })
+	public int batch;
+
+	private Queue<Outgoing> linkedQueue;
+	private OutgoingQueue ringQueue;
+	private ByteBuffer buffer;
+	private Integer value;
+
+	@Setup
+	public void setup() {
+		linkedQueue = new ConcurrentLinkedQueue<>();
+		ringQueue = new OutgoingQueue(RawConnection.WRITE_QUEUE_CAPACITY);
+		buffer = ByteBuffer.allocateDirect(65536);
+		value = 12345;
+	}
+
+	@Benchmark
+	public ByteBuffer linkedQueue() {
+		buffer.clear();
+
+		for (int i = 0; i < batch; i++) {
+			Object v = value;
+			linkedQueue.add(new Outgoing(PacketMode.NOTIFY, 1, 0, b -> ENCODER.encode(v, b)));
+		}
+
+		Outgoing out;
+		while ((out = linkedQueue.poll()) != null) {
+			buffer.putInt(out.type);
+			out.writer.accept(buffer);
+		}
+
+		return buffer;
+	}
+
+	@Benchmark
+	public ByteBuffer ringQueue() {
+		buffer.clear();
+		for (int i = 0; i < batch; i++) ringQueue.offer(PacketMode.NOTIFY, 1, 0, ENCODER, value);
+
+		while (ringQueue.peek()) {
+			buffer.putInt(ringQueue.type());
+			ringQueue.encode(buffer);
+			ringQueue.remove();
+		}
+
+		return buffer;
+	}
+}
@@ -0,0 +1,58 @@
+package io.github.nahkd123.transporter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import io.github.nahkd123.transporter.RawConnection.PacketMode;
+
+class OutgoingQueueTest {
+	@Test
+	void testOverflow() {
+		OutgoingQueue queue = new OutgoingQueue(4);
+		for (int i = 0; i < 10; i++) queue.offer(PacketMode.NOTIFY, i, 0, null, null);
+
+		for (int i = 0; i < 10; i++) {
+			queue.peek();
+			assertEquals(i, queue.type());
+			queue.remove();
+		}
+
+		assertFalse(queue.peek());
+	}
+
+	@Test
+	void testProducerOrder() throws InterruptedException {
+		OutgoingQueue queue = new OutgoingQueue(16);
+		int producers = 4, packets = 100000;
+		List<Thread> threads = new ArrayList<>();
+
+		for (int p = 0; p < producers; p++) {
+			int producer = p;
+			threads.add(Thread.startVirtualThread(() -> {
+				for (int i = 0; i < packets; i++) queue.offer(PacketMode.NOTIFY, producer, i, null, null);
+			}));
+		}
+
+		int[] next = new int[producers];
+		int consumed = 0;
+
+		while (consumed < producers * packets) {
+			if (!queue.peek()) {
+				Thread.onSpinWait();
+				continue;
+			}
+
+			assertEquals(next[queue.type()]++, queue.reqId());
+			queue.remove();
+			consumed++;
+		}
+
+		for (Thread thread : threads) thread.join();
+		assertFalse(queue.peek());
+	}
+}
@@ -0,0 +1,71 @@
+package io.github.nahkd123.transporter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import io.github.nahkd123.transporter.PendingRequests.Pending;
+
+class PendingRequestsTest {
+	@Test
+	void testReuse() {
+		PendingRequests requests = new PendingRequests();
+		Pending<Object> first = requests.register();
+		assertSame(first, requests.remove(first.reqId()));
+		assertNull(requests.remove(first.reqId()));
+
+		// Same slot, but late response for the first request must not complete it
+		Pending<Object> second = requests.register();
+		assertTrue(second.reqId() != first.reqId());
+		assertNull(requests.remove(first.reqId()));
+		assertSame(second, requests.remove(second.reqId()));
+	}
+
+	@Test
+	void testGrowAndFailAll() {
+		PendingRequests requests = new PendingRequests();
+		List<Pending<Object>> pending = new ArrayList<>();
+		Set<Integer> reqIds = new HashSet<>();
+
+		for (int i = 0; i < 5000; i++) {
+			Pending<Object> request = requests.register();
+			pending.add(request);
+			assertTrue(reqIds.add(request.reqId()));
+		}
+
+		for (int i = 0; i < 5000; i += 2) assertSame(pending.get(i), requests.remove(pending.get(i).reqId()));
+		requests.failAll(new IOException("Connection closed"));
+		for (int i = 0; i < 5000; i++) assertEquals(i % 2 == 1, pending.get(i).isCompletedExceptionally());
+		assertNull(requests.remove(pending.get(1).reqId()));
+	}
+
+	@Test
+	void testConcurrent() throws InterruptedException {
+		PendingRequests requests = new PendingRequests();
+		AtomicInteger completed = new AtomicInteger();
+		List<Thread> threads = new ArrayList<>();
+
+		for (int t = 0; t < 4; t++) {
+			threads.add(Thread.startVirtualThread(() -> {
+				for (int i = 0; i < 100000; i++) {
+					Pending<Object> request = requests.register();
+					Pending<?> removed = requests.remove(request.reqId());
+					if (removed == request) completed.incrementAndGet();
+				}
+			}));
+		}
+
+		for (Thread thread : threads) thread.join();
+		assertEquals(400000, completed.get());
+	}
+}
@@ -0,0 +1,226 @@
+package io.github.nahkd123.transporter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.Test;
+
+import io.github.nahkd123.transporter.RawConnectionTest.MemoryChannel;
+import io.github.nahkd123.transporter.TransporterConnectionTest.MyConnection;
+import io.github.nahkd123.transporter.TransporterConnectionTest.PingPacket;
+import io.github.nahkd123.transporter.TransporterConnectionTest.PongPacket;
+import io.github.nahkd123.transporter.serialize.BufferCodec;
+
+class ProtocolTest {
+	sealed interface Shape permits Circle, Square {
+		BufferCodec<Shape> CODEC = BufferCodec.I32.asSequence(2).map(
+			list -> list.get(0) == 0 ? new Circle(list.get(1)) : new Square(list.get(1)),
+			shape -> switch (shape) {
+			case Circle(int radius) -> List.of(0, radius);
+			case Square(int side) -> List.of(1, side);
+			});
+	}
+
+	record Circle(int radius) implements Shape {
+	}
+
+	record Square(int side) implements Shape {
+	}
+
+	static final Protocol PROTOCOL = Protocol.builder()
+		.register(0x00, PingPacket.class, PingPacket.CODEC)
+		.register(0x10000, PongPacket.class, PongPacket.CODEC)
+		.build();
+
+	static class SharedConnection extends TransporterConnection {
+		SharedConnection() {
+			this(PROTOCOL);
+		}
+
+		SharedConnection(Protocol protocol) {
+			super(protocol);
+		}
+
+		@Override
+		protected void onRequest(Request request) {
+			request.responseSuccess(new PongPacket(((PingPacket) request.packet()).message()));
+		}
+
+		@Override
+		protected ByteBuffer createConnectionBuffer() {
+			return ByteBuffer.allocate(256);
+		}
+	}
+
+	@Test
+	void testLookup() {
+		assertSame(PingPacket.class, PROTOCOL.byType(0x00).clazz());
+		assertSame(PongPacket.class, PROTOCOL.byType(0x10000).clazz());
+		assertNull(PROTOCOL.byType(0x01));
+		assertNull(PROTOCOL.byType(-1));
+		assertEquals(0x10000, PROTOCOL.byClass(PongPacket.class).type());
+		assertNull(PROTOCOL.byClass(String.class));
+		assertThrows(IllegalArgumentException.class, () -> PROTOCOL.toBuilder()
+			.register(0x00, String.class, BufferCodec.UTF8));
+	}
+
+	@Test
+	void testResolveSupertype() throws IOException {
+		Protocol protocol = Protocol.builder().register(0x05, Shape.class, Shape.CODEC).build();
+		assertNull(protocol.byClass(Circle.class));
+		assertSame(protocol.byClass(Shape.class), protocol.resolve(Circle.class));
+		assertSame(protocol.byClass(Shape.class), protocol.resolve(Square.class));
+		assertNull(protocol.resolve(String.class));
+
+		MemoryChannel channel = new MemoryChannel();
+		List<Object> received = new ArrayList<>();
+		SharedConnection sender = new SharedConnection(protocol);
+		SharedConnection receiver = new SharedConnection(protocol) {
+			@Override
+			protected void onNotification(Object data) {
+				received.add(data);
+			}
+		};
+
+		sender.queueNotification(new Circle(3));
+		sender.queueNotification(new Square(4));
+		sender.channelWrite(channel);
+		receiver.channelRead(channel);
+		assertEquals(List.of(new Circle(3), new Square(4)), received);
+	}
+
+	@Test
+	void testSharedProtocol() throws IOException {
+		MemoryChannel toServer = new MemoryChannel();
+		MemoryChannel toClient = new MemoryChannel();
+		SharedConnection client = new SharedConnection();
+		SharedConnection server = new SharedConnection();
+		assertSame(client.getProtocol(), server.getProtocol());
+
+		CompletableFuture<PongPacket> response = client.queueRequest(new PingPacket(42));
+		client.channelWrite(toServer);
+		server.channelRead(toServer);
+		server.channelWrite(toClient);
+		client.channelRead(toClient);
+		assertEquals(new PongPacket(42), response.join());
+
+		// Registering in one connection copies the protocol
+		client.registerPacket(0x02, String.class, BufferCodec.UTF8);
+		assertEquals(0x02, client.getProtocol().byClass(String.class).type());
+		assertNull(server.getProtocol().byClass(String.class));
+		assertNull(PROTOCOL.byClass(String.class));
+	}
+
+	@Test
+	void testRegisteredProtocol() {
+		// Connections registering the same packets share the built protocol
+		MyConnection a = new MyConnection(new MemoryChannel());
+		MyConnection b = new MyConnection(new MemoryChannel());
+		assertSame(a.getProtocol(), b.getProtocol());
+
+		b.registerPacket(0x02, String.class, BufferCodec.UTF8);
+		assertNotSame(a.getProtocol(), b.getProtocol());
+		assertNull(a.getProtocol().byClass(String.class));
+		assertSame(a.getProtocol(), new MyConnection(new MemoryChannel()).getProtocol());
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void testRequestKey() {
+		Protocol protocol = PROTOCOL.toBuilder().key(PingPacket.class, ping -> ping.message() % 2).build();
+		assertEquals(1, ((Function<PingPacket, ?>) protocol.byClass(PingPacket.class).key()).apply(new PingPacket(3)));
+		assertNull(PROTOCOL.byClass(PingPacket.class).key());
+		assertThrows(IllegalArgumentException.class, () -> PROTOCOL.toBuilder().key(String.class, s -> s));
+
+		try (ExecutorService executor = Executors.newFixedThreadPool(4)) {
+			List<List<Integer>> handled = List.of(new ArrayList<>(), new ArrayList<>());
+			SharedConnection client = new SharedConnection(protocol);
+			SharedConnection server = new SharedConnection(protocol) {
+				@Override
+				protected void onRequest(Request request) {
+					// Not synchronized: requests with the same key never run concurrently
+					int message = ((PingPacket) request.packet()).message();
+					handled.get(message % 2).add(message);
+					super.onRequest(request);
+				}
+			};
+
+			server.setRequestExecutor(executor);
+			LoopbackTransport.link(client, server, executor);
+			List<CompletableFuture<PongPacket>> responses = new ArrayList<>();
+			for (int i = 0; i < 200; i++) responses.add(client.queueRequest(new PingPacket(i)));
+			for (int i = 0; i < 200; i++) assertEquals(i, responses.get(i).join().message());
+
+			for (int key = 0; key < 2; key++) {
+				List<Integer> list = handled.get(key);
+				assertEquals(100, list.size());
+				for (int i = 0; i < 100; i++) assertEquals(i * 2 + key, list.get(i));
+			}
+
+			client.close();
+		}
+	}
+
+	@Test
+	void testRequestKeyFailure() throws InterruptedException {
+		Protocol protocol = PROTOCOL.toBuilder().key(PingPacket.class, ping -> {
+			if (ping.message() < 0) throw new IllegalArgumentException("Negative message");
+			return ping.message() == 0 ? null : ping.message();
+		}).build();
+		CountDownLatch keyless = new CountDownLatch(2);
+		AtomicBoolean serialized = new AtomicBoolean();
+
+		try (ExecutorService executor = Executors.newFixedThreadPool(4)) {
+			SharedConnection client = new SharedConnection(protocol);
+			SharedConnection server = new SharedConnection(protocol) {
+				@Override
+				protected void onRequest(Request request) {
+					// Requests without key wait for each other, which only works when
+					// they are not serialized
+					if (((PingPacket) request.packet()).message() == 0) {
+						keyless.countDown();
+
+						try {
+							if (!keyless.await(2, TimeUnit.SECONDS)) serialized.set(true);
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+					}
+
+					super.onRequest(request);
+				}
+			};
+
+			server.setRequestExecutor(executor);
+			LoopbackTransport.link(client, server, executor);
+			CompletableFuture<PongPacket> failed = client.queueRequest(new PingPacket(-1));
+			CompletionException e = assertThrows(CompletionException.class, failed::join);
+			assertEquals("Negative message", e.getCause().getMessage());
+			assertFalse(server.isClosed());
+
+			CompletableFuture<PongPacket> first = client.queueRequest(new PingPacket(0));
+			CompletableFuture<PongPacket> second = client.queueRequest(new PingPacket(0));
+			assertEquals(0, first.join().message());
+			assertEquals(0, second.join().message());
+			assertFalse(serialized.get());
+			client.close();
+		}
+	}
+}
@@ -0,0 +1,537 @@
+package io.github.nahkd123.transporter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.jupiter.api.Test;
+
+import io.github.nahkd123.transporter.RawConnection.HeaderFormat;
+import io.github.nahkd123.transporter.RawConnection.PacketMode;
+
+class RawConnectionTest {
+	static class MemoryChannel implements ByteChannel {
+		ByteBuffer data = ByteBuffer.allocate(65536).flip();
+		int maxRead = Integer.MAX_VALUE;
+		int reads = 0;
+		int writes = 0;
+
+		@Override
+		public int read(ByteBuffer dst) {
+			if (!data.hasRemaining()) return 0;
+			int length = Math.min(maxRead, Math.min(dst.remaining(), data.remaining()));
+			dst.put(dst.position(), data, data.position(), length);
+			dst.position(dst.position() + length);
+			data.position(data.position() + length);
+			reads++;
+			return length;
+		}
+
+		@Override
+		public int write(ByteBuffer src) {
+			int length = src.remaining();
+			data.compact().put(src).flip();
+			writes++;
+			return length;
+		}
+
+		@Override
+		public boolean isOpen() { return true; }
+
+		@Override
+		public void close() {}
+	}
+
+	static class MyConnection extends RawConnection {
+		List<Integer> received = new ArrayList<>();
+		List<Integer> types = new ArrayList<>();
+		List<Boolean> writability = new ArrayList<>();
+		List<Integer> batches = new ArrayList<>();
+
+		void notify(int type, int value) {
+			queueRawPacketWrite(PacketMode.NOTIFY, type, 0, b -> b.putInt(value));
+		}
+
+		void send(PacketMode mode, int type, int value) {
+			queueRawPacketWrite(mode, type, 0, b -> b.putInt(value));
+		}
+
+		CompletableFuture<Void> notifyAsync(int type, int value) {
+			return queueRawPacketWriteAsync(PacketMode.NOTIFY, type, 0, b -> b.putInt(value));
+		}
+
+		@Override
+		protected void onWritabilityChanged(boolean writable) {
+			writability.add(writable);
+		}
+
+		@Override
+		protected ByteBuffer createConnectionBuffer() {
+			return ByteBuffer.allocate(256);
+		}
+
+		@Override
+		protected void onClose(boolean remote, Throwable error) {}
+
+		@Override
+		protected void onRawPacket(PacketMode mode, int type, int reqId, ByteBuffer buffer) {
+			types.add(type);
+			received.add(buffer.getInt());
+		}
+
+		@Override
+		protected void onRawPacketBatch(PacketBatch batch) {
+			batches.add(batch.size());
+			super.onRawPacketBatch(batch);
+		}
+	}
+
+	@Test
+	void testWriteBatching() throws IOException {
+		MemoryChannel channel = new MemoryChannel();
+		MyConnection sender = new MyConnection();
+		MyConnection receiver = new MyConnection();
+		sender.setWriteBatching(true);
+		sender.channelWrite(channel);
+		for (int i = 0; i < 100; i++) sender.notify(0, i);
+		sender.channelWrite(channel);
+
+		// 256 bytes buffer holds 16 frames of 16 bytes
+		assertEquals(100L, sender.getFramesWritten());
+		assertEquals(7L, sender.getWriteCalls());
+
+		receiver.channelRead(channel);
+		assertEquals(100, receiver.received.size());
+		for (int i = 0; i < 100; i++) assertEquals(i, receiver.received.get(i));
+	}
+
+	@Test
+	void testReadAhead() throws IOException {
+		MemoryChannel channel = new MemoryChannel();
+		MyConnection sender = new MyConnection();
+		MyConnection receiver = new MyConnection();
+		sender.channelWrite(channel);
+		for (int i = 0; i < 100; i++) sender.notify(0, i);
+		sender.channelWrite(channel);
+		assertEquals(100L, sender.getWriteCalls());
+
+		receiver.channelRead(channel);
+		assertEquals(100L, receiver.getFramesRead());
+		assertEquals(7L, receiver.getReadCalls());
+		for (int i = 0; i < 100; i++) assertEquals(i, receiver.received.get(i));
+	}
+
+	@Test
+	void testPartialRead() throws IOException {
+		MemoryChannel channel = new MemoryChannel();
+		MyConnection sender = new MyConnection();
+		MyConnection receiver = new MyConnection();
+		channel.maxRead = 5;
+		sender.channelWrite(channel);
+		for (int i = 0; i < 10; i++) sender.notify(0, i);
+		sender.channelWrite(channel);
+
+		receiver.channelRead(channel);
+		assertEquals(10, receiver.received.size());
+		for (int i = 0; i < 10; i++) assertEquals(i, receiver.received.get(i));
+	}
+
+	@Test
+	void testWakeupHook() throws IOException {
+		MemoryChannel channel = new MemoryChannel();
+		MyConnection sender = new MyConnection();
+		AtomicInteger wakeups = new AtomicInteger();
+		sender.setWakeupHook(wakeups::incrementAndGet);
+
+		// Only the first packet in empty queue needs to wake up the writer
+		sender.notify(0, 0);
+		assertEquals(1, wakeups.get());
+		sender.notify(0, 1);
+		sender.notify(0, 2);
+		assertEquals(1, wakeups.get());
+
+		sender.channelWrite(channel);
+		assertFalse(sender.hasPendingWrites());
+		assertEquals(1, wakeups.get());
+		sender.notify(0, 3);
+		assertEquals(2, wakeups.get());
+		sender.notify(0, 4);
+		assertEquals(2, wakeups.get());
+	}
+
+	@Test
+	void testWatermarks() throws IOException {
+		MemoryChannel channel = new MemoryChannel();
+		MyConnection sender = new MyConnection();
+		sender.setWriteWatermarks(1, 4);
+		for (int i = 0; i < 4; i++) sender.notify(0, i);
+		assertFalse(sender.isWritable());
+		assertEquals(List.of(false), sender.writability);
+
+		CompletableFuture<Void> task = sender.notifyAsync(0, 4);
+		assertFalse(task.isDone());
+		sender.channelWrite(channel);
+		assertTrue(sender.isWritable());
+		assertTrue(task.isDone());
+		assertEquals(List.of(false, true), sender.writability);
+		assertEquals(5L, sender.getFramesWritten());
+	}
+
+	@Test
+	void testWatermarksConcurrent() throws Exception {
+		ByteChannel sink = new ByteChannel() {
+			@Override
+			public int write(ByteBuffer src) {
+				int length = src.remaining();
+				src.position(src.limit());
+				return length;
+			}
+
+			@Override
+			public int read(ByteBuffer dst) {
+				return 0;
+			}
+
+			@Override
+			public boolean isOpen() { return true; }
+
+			@Override
+			public void close() {}
+		};
+		MyConnection sender = new MyConnection();
+		sender.setWriteWatermarks(0, 1);
+
+		Thread writer = new Thread(() -> {
+			try {
+				while (!sender.isClosed()) {
+					// Spinning keeps the writer draining while producers are queueing
+					if (!sender.channelWrite(sink)) Thread.onSpinWait();
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+		sender.setWakeupHook(() -> LockSupport.unpark(writer));
+		writer.start();
+
+		// Producers race with the writer draining to low watermark, which used to
+		// leave the connection unwritable with empty queue and waiters never queued
+		try (ExecutorService producers = Executors.newFixedThreadPool(8)) {
+			List<Future<?>> tasks = new ArrayList<>();
+			for (int p = 0; p < 8; p++) tasks.add(producers.submit(() -> {
+				for (int i = 0; i < 50000; i++) sender.notifyAsync(0, i).join();
+			}));
+			for (Future<?> task : tasks) task.get(20, TimeUnit.SECONDS);
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5L);
+			while (!sender.isWritable() && System.nanoTime() < deadline) LockSupport.parkNanos(1000000L);
+			assertTrue(sender.isWritable());
+		} finally {
+			sender.close();
+			writer.join();
+		}
+
+		for (int i = 0; i < sender.writability.size(); i++) assertEquals(i % 2 == 1, sender.writability.get(i));
+	}
+
+	@Test
+	void testStrictPriority() throws IOException {
+		MemoryChannel channel = new MemoryChannel();
+		MyConnection sender = new MyConnection();
+		MyConnection receiver = new MyConnection();
+		sender.setWriteScheduler(WriteScheduler.strictPriority());
+		sender.setWriteBatching(true);
+		for (int i = 0; i < 4; i++) sender.send(PacketMode.NOTIFY, 2, i);
+		sender.send(PacketMode.REQUEST, 1, 4);
+		sender.send(PacketMode.RESPONSE_SUCCEED, 0, 5);
+		sender.send(PacketMode.RESPONSE_FAILED, 0, 6);
+		sender.channelWrite(channel);
+
+		receiver.channelRead(channel);
+		assertEquals(List.of(5, 6, 4, 0, 1, 2, 3), receiver.received);
+		assertThrows(IllegalArgumentException.class, () -> sender.queueRawPacketWrite(PacketMode.NOTIFY, 0, 0, 3, b -> {}));
+	}
+
+	@Test
+	void testWeightedRoundRobin() throws IOException {
+		MemoryChannel channel = new MemoryChannel();
+		MyConnection sender = new MyConnection();
+		MyConnection receiver = new MyConnection();
+		sender.setWriteScheduler(WriteScheduler.weightedRoundRobin(2, 1));
+		sender.setWriteBatching(true);
+		for (int i = 0; i < 6; i++) sender.send(PacketMode.NOTIFY, 1, i);
+		for (int i = 0; i < 3; i++) sender.send(PacketMode.RESPONSE_SUCCEED, 0, i);
+		sender.channelWrite(channel);
+
+		receiver.channelRead(channel);
+		assertEquals(List.of(0, 0, 1, 0, 1, 1, 1, 1, 1), receiver.types);
+		assertThrows(IllegalStateException.class, () -> {
+			sender.send(PacketMode.NOTIFY, 0, 0);
+			sender.setWriteScheduler(WriteScheduler.fifo());
+		});
+	}
+
+	@Test
+	void testWeightedRoundRobinOverflow() throws IOException {
+		MemoryChannel channel = new MemoryChannel();
+		MyConnection sender = new MyConnection();
+		MyConnection receiver = new MyConnection();
+		sender.setWriteScheduler(WriteScheduler.weightedRoundRobin(3, 1));
+		sender.setWriteBatching(true);
+
+		// Only one large response fits in write buffer, so every other one is put
+		// back until buffer is flushed, which must not spend the credit of lane
+		for (int i = 0; i < 9; i++) {
+			int value = i;
+			sender.queueRawPacketWrite(PacketMode.RESPONSE_SUCCEED, 0, 0, b -> b.putInt(value).put(new byte[150]));
+		}
+
+		for (int i = 0; i < 3; i++) sender.send(PacketMode.NOTIFY, 1, i);
+		while (sender.channelWrite(channel)) receiver.channelRead(channel);
+		receiver.channelRead(channel);
+		assertEquals(List.of(0, 0, 0, 1, 0, 0, 0, 1, 0, 0, 0, 1), receiver.types);
+	}
+
+	@Test
+	void testFileRegion() throws IOException {
+		Path path = Files.createTempFile("transporter", ".bin");
+
+		try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			file.write(ByteBuffer.allocate(12).putInt(0).putInt(2).putInt(0).flip());
+			MemoryChannel channel = new MemoryChannel();
+			MyConnection sender = new MyConnection();
+			MyConnection receiver = new MyConnection();
+			sender.setWriteBatching(true);
+			sender.notify(0, 1);
+			sender.queueRawFileWrite(PacketMode.NOTIFY, 0, 0, file, 4L, 8);
+			sender.notify(0, 3);
+			sender.channelWrite(channel);
+			assertFalse(sender.hasPendingWrites());
+			assertEquals(3L, sender.getFramesWritten());
+
+			receiver.channelRead(channel);
+			assertEquals(List.of(1, 2, 3), receiver.received);
+
+			sender.queueRawFileWrite(PacketMode.NOTIFY, 0, 0, file, 8L, 16);
+			assertThrows(EOFException.class, () -> sender.channelWrite(channel));
+			assertTrue(sender.isClosed());
+		} finally {
+			Files.delete(path);
+		}
+	}
+
+	@Test
+	void testCompression() throws IOException {
+		MemoryChannel channel = new MemoryChannel();
+		MyConnection sender = new MyConnection();
+		MyConnection receiver = new MyConnection();
+		byte[] dictionary = "transporter".getBytes(StandardCharsets.UTF_8);
+		sender.setCompression(16, dictionary);
+		receiver.setCompression(-1, dictionary);
+		sender.setWriteBatching(true);
+		sender.notify(0, 1);
+		sender.queueRawPacketWrite(PacketMode.NOTIFY, 0, 0, b -> {
+			b.putInt(2);
+			for (int i = 0; i < 20; i++) b.put(dictionary);
+		});
+		sender.notify(0, 3);
+		sender.channelWrite(channel);
+		assertEquals(1L, sender.getFramesCompressed());
+		assertTrue(channel.data.remaining() < 16 * 3 + 20 * dictionary.length);
+
+		receiver.channelRead(channel);
+		assertEquals(List.of(1, 2, 3), receiver.received);
+	}
+
+	@Test
+	void testReadBatching() throws IOException {
+		MemoryChannel channel = new MemoryChannel();
+		MyConnection sender = new MyConnection();
+		MyConnection receiver = new MyConnection();
+		sender.setCompression(64, null);
+		sender.setWriteBatching(true);
+		receiver.setReadBatching(true);
+		for (int i = 0; i < 10; i++) sender.notify(0, i);
+		sender.queueRawPacketWrite(PacketMode.NOTIFY, 0, 0, b -> b.putInt(10).put(new byte[100]));
+		for (int i = 11; i < 20; i++) sender.notify(0, i);
+		sender.channelWrite(channel);
+		assertEquals(1L, sender.getFramesCompressed());
+
+		// 20 frames are larger than 256 bytes read buffer, so they are read in 2 passes
+		receiver.channelRead(channel);
+		assertEquals(2L, receiver.getReadCalls());
+		assertEquals(2, receiver.batches.size());
+		assertEquals(20, receiver.batches.get(0) + receiver.batches.get(1));
+		for (int i = 0; i < 20; i++) assertEquals(i, receiver.received.get(i));
+	}
+
+	@Test
+	void testReadBatchingByteOrder() throws IOException {
+		MemoryChannel channel = new MemoryChannel();
+		MyConnection sender = new MyConnection() {
+			@Override
+			protected ByteBuffer createConnectionBuffer() {
+				return ByteBuffer.allocate(256).order(ByteOrder.LITTLE_ENDIAN);
+			}
+		};
+		MyConnection receiver = new MyConnection() {
+			@Override
+			protected ByteBuffer createConnectionBuffer() {
+				return ByteBuffer.allocate(256).order(ByteOrder.LITTLE_ENDIAN);
+			}
+		};
+		sender.setCompression(64, null);
+		sender.setWriteBatching(true);
+		receiver.setReadBatching(true);
+		sender.notify(0, 1);
+		sender.queueRawPacketWrite(PacketMode.NOTIFY, 0, 0, b -> b.putInt(12345).put(new byte[100]));
+		sender.channelWrite(channel);
+		assertEquals(1L, sender.getFramesCompressed());
+
+		// Inflated body is copied out of read buffer, but must keep its byte order
+		receiver.channelRead(channel);
+		assertEquals(List.of(2), receiver.batches);
+		assertEquals(List.of(1, 12345), receiver.received);
+	}
+
+	@Test
+	void testCompactHeader() throws IOException {
+		MemoryChannel channel = new MemoryChannel();
+		MyConnection sender = new MyConnection();
+		MyConnection receiver = new MyConnection();
+		sender.setHeaderFormat(HeaderFormat.COMPACT);
+		receiver.setHeaderFormat(HeaderFormat.COMPACT);
+		sender.setCompression(64, null);
+		sender.setWriteBatching(true);
+		sender.notify(5, 1);
+		sender.queueRawPacketWrite(PacketMode.REQUEST, 300, 0x7FFFFFFF, b -> b.putInt(2));
+		sender.queueRawPacketWrite(PacketMode.RESPONSE_SUCCEED, -1, -1, b -> b.putInt(3).put(new byte[200]));
+		sender.channelWrite(channel);
+		assertEquals(1L, sender.getFramesCompressed());
+
+		// 3 + (1 + 1 + 2 + 5) + 4 * 2 bytes for first 2 packets
+		int compressedSize = channel.data.remaining() - 20;
+		receiver.channelRead(channel);
+		assertEquals(List.of(1, 2, 3), receiver.received);
+		assertEquals(List.of(5, 300, -1), receiver.types);
+		assertTrue(compressedSize < 100);
+	}
+
+	@Test
+	void testCompactHeaderMaxBody() throws IOException {
+		MemoryChannel channel = new MemoryChannel();
+		channel.data = ByteBuffer.allocate(131072).flip();
+		MyConnection sender = new MyConnection() {
+			@Override
+			protected ByteBuffer createConnectionBuffer() {
+				return ByteBuffer.allocate(12 + 65535);
+			}
+		};
+		MyConnection receiver = new MyConnection() {
+			@Override
+			protected ByteBuffer createConnectionBuffer() {
+				return ByteBuffer.allocate(12 + 65535);
+			}
+		};
+		sender.setHeaderFormat(HeaderFormat.COMPACT);
+		receiver.setHeaderFormat(HeaderFormat.COMPACT);
+
+		// Buffer for fixed header holds the largest body with compact header too
+		sender.queueRawPacketWrite(PacketMode.REQUEST, 1, 0x7FFFFFFF, b -> b.putInt(1).put(new byte[65535 - 4]));
+		sender.channelWrite(channel);
+		assertFalse(sender.isClosed());
+		assertEquals(1L, sender.getFramesWritten());
+
+		receiver.channelRead(channel);
+		assertEquals(List.of(1), receiver.received);
+	}
+
+	@Test
+	void testFlushPolicy()throws IOException, InterruptedException {
+		MemoryChannel channel = new MemoryChannel();
+		MyConnection sender = new MyConnection();
+		sender.setFlushPolicy(FlushPolicy.coalesce(64, Duration.ofMillis(20L)));
+		sender.notify(0, 0);
+		sender.notify(0, 1);
+		sender.channelWrite(channel);
+		assertFalse(channel.data.hasRemaining());
+		assertTrue(sender.isHoldingWrites());
+		assertTrue(sender.getFlushDeadline() != Long.MAX_VALUE);
+		assertEquals(0L, sender.getWriteCalls());
+
+		// 4 frames of 16 bytes reach maxBytes
+		sender.notify(0, 2);
+		sender.notify(0, 3);
+		sender.channelWrite(channel);
+		assertFalse(sender.isHoldingWrites());
+		assertEquals(1L, sender.getWriteCalls());
+
+		sender.notify(0, 4);
+		sender.channelWrite(channel);
+		assertEquals(1L, sender.getWriteCalls());
+		Thread.sleep(25L);
+		sender.channelWrite(channel);
+		assertEquals(2L, sender.getWriteCalls());
+
+		sender.setFlushPolicy(FlushPolicy.explicit());
+		for (int i = 5; i < 10; i++) sender.notify(0, i);
+		sender.channelWrite(channel);
+		assertTrue(sender.isHoldingWrites());
+		assertEquals(Long.MAX_VALUE, sender.getFlushDeadline());
+		sender.flush();
+		sender.channelWrite(channel);
+		assertEquals(3L, sender.getWriteCalls());
+
+		MyConnection receiver = new MyConnection();
+		receiver.channelRead(channel);
+		assertEquals(List.of(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), receiver.received);
+	}
+
+	@Test
+	void testFlushPolicyFileRegion() throws IOException {
+		Path path = Files.createTempFile("transporter", ".bin");
+
+		try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			file.write(ByteBuffer.allocate(4).putInt(2).flip());
+			MemoryChannel channel = new MemoryChannel();
+			MyConnection sender = new MyConnection();
+			sender.setFlushPolicy(FlushPolicy.explicit());
+			sender.notify(0, 1);
+			sender.queueRawFileWrite(PacketMode.NOTIFY, 0, 0, file, 0L, 4);
+
+			// File region is written along with packets before it, without flush()
+			sender.channelWrite(channel);
+			assertFalse(sender.isHoldingWrites());
+			assertFalse(sender.hasPendingWrites());
+			assertEquals(32, channel.data.remaining());
+
+			MyConnection receiver = new MyConnection();
+			receiver.channelRead(channel);
+			assertEquals(List.of(1, 2), receiver.received);
+		} finally {
+			Files.delete(path);
+		}
+	}
+}
@@ -0,0 +1,44 @@
+package io.github.nahkd123.transporter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+class RequestLimiterTest {
+	@Test
+	void testAimd() {
+		RequestLimiter limiter = RequestLimiter.aimd(10, 12, Duration.ofMillis(10L));
+		limiter.onSample(1000000L, 10, false);
+		assertEquals(11, limiter.limit());
+
+		// Mostly unused window does not grow
+		limiter.onSample(1000000L, 2, false);
+		assertEquals(11, limiter.limit());
+
+		limiter.onSample(1000000L, 11, false);
+		limiter.onSample(1000000L, 12, false);
+		assertEquals(12, limiter.limit());
+
+		limiter.onSample(20000000L, 12, false);
+		assertEquals(10, limiter.limit());
+		limiter.onSample(1000000L, 10, true);
+		assertEquals(9, limiter.limit());
+	}
+
+	@Test
+	void testGradient() {
+		RequestLimiter limiter = RequestLimiter.gradient(20, 100);
+
+		// Stable round-trip time grows the limit
+		for (int i = 0; i < 50; i++) limiter.onSample(1000000L, limiter.limit(), false);
+		int stable = limiter.limit();
+		assertTrue(stable > 20, "Limit did not grow: %d".formatted(stable));
+
+		// Queueing in peer raises round-trip time, which shrinks the limit
+		for (int i = 0; i < 20; i++) limiter.onSample(10000000L, limiter.limit(), false);
+		assertTrue(limiter.limit() < stable / 2, "Limit did not shrink: %d".formatted(limiter.limit()));
+	}
+}
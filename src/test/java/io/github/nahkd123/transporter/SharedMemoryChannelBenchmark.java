@@ -0,0 +1,128 @@
+package io.github.nahkd123.transporter;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.github.nahkd123.transporter.TransporterConnectionTest.MyConnection;
+import io.github.nahkd123.transporter.TransporterConnectionTest.PingPacket;
+import io.github.nahkd123.transporter.TransporterConnectionTest.PongPacket;
+
+/**
+ * <p>
+ * Compare ping round trip between {@link SharedMemoryChannel} and Unix domain
+ * socket, using the connection from {@link TransporterConnectionTest}. Both
+ * sides are driven by spinning platform threads, so the numbers show the cost
+ * of transport instead of the cost of parking.
+ * </p>
+ * {@snippet :
+ * mvn test-compile -Pbenchmark -Dbenchmark=SharedMemoryChannelBenchmark
+ * }
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SharedMemoryChannelBenchmark {
+	@Param({ "unix", "shm" })
+	public String transport;
+
+	private Path path;
+	private MyConnection server;
+	private MyConnection client;
+	private Thread serverThread;
+	private Thread clientThread;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		path = Path.of(getClass().getName() + "." + transport);
+		Files.deleteIfExists(path);
+		ByteChannel serverChannel, clientChannel;
+
+		switch (transport) {
+		case "unix": {
+			try (ServerSocketChannel listener = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+				listener.bind(UnixDomainSocketAddress.of(path));
+				SocketChannel socket = SocketChannel.open(UnixDomainSocketAddress.of(path));
+				serverChannel = listener.accept();
+				clientChannel = socket;
+				((SocketChannel) serverChannel).configureBlocking(false);
+				socket.configureBlocking(false);
+			}
+
+			break;
+		}
+		case "shm":
+			serverChannel = SharedMemoryChannel.create(path, 1 << 20);
+			clientChannel = SharedMemoryChannel.open(path);
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown transport: %s".formatted(transport));
+		}
+
+		server = new MyConnection(serverChannel);
+		client = new MyConnection(clientChannel);
+		serverThread = Thread.ofPlatform().daemon().start(() -> spin(server));
+		clientThread = Thread.ofPlatform().daemon().start(() -> spin(client));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		client.close();
+		server.closeTask.get(5, TimeUnit.SECONDS);
+		server.close();
+		serverThread.join();
+		clientThread.join();
+		Files.deleteIfExists(path);
+	}
+
+	private static void spin(MyConnection connection) {
+		try {
+			while (!connection.isClosed()) {
+				boolean b = connection.channelRead(connection.channel);
+				b |= connection.channelWrite(connection.channel);
+				if (!b) Thread.onSpinWait();
+			}
+		} catch (IOException e) {
+			// Connection is closed by peer
+		}
+	}
+
+	@Benchmark
+	public int ping() {
+		return client.ping(42);
+	}
+
+	@Benchmark
+	@SuppressWarnings("unchecked")
+	public int pipelinedPing() {
+		CompletableFuture<PongPacket>[] tasks = new CompletableFuture[64];
+		for (int i = 0; i < tasks.length; i++) tasks[i] = client.queueRequest(new PingPacket(i));
+		int sum = 0;
+		for (CompletableFuture<PongPacket> task : tasks) sum += task.join().message();
+		return sum;
+	}
+}
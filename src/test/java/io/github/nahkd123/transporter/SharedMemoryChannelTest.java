@@ -0,0 +1,79 @@
+package io.github.nahkd123.transporter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.jupiter.api.Test;
+
+import io.github.nahkd123.transporter.TransporterConnectionTest.MyConnection;
+
+class SharedMemoryChannelTest {
+	@Test
+	void testRing() throws IOException {
+		Path path = Files.createTempFile("transporter", ".shm");
+
+		try (SharedMemoryChannel a = SharedMemoryChannel.create(path, 16);
+			SharedMemoryChannel b = SharedMemoryChannel.open(path)) {
+			ByteBuffer buffer = ByteBuffer.allocate(32);
+			assertEquals(0, b.read(buffer));
+
+			// Wrap around the end of ring a few times
+			for (int i = 0; i < 8; i++) {
+				assertEquals(12, a.write(ByteBuffer.allocate(12).putInt(i).putInt(i + 1).putInt(i + 2).flip()));
+				assertEquals(12, b.read(buffer.clear()));
+				buffer.flip();
+				assertEquals(i, buffer.getInt());
+				assertEquals(i + 1, buffer.getInt());
+				assertEquals(i + 2, buffer.getInt());
+			}
+
+			assertEquals(16, b.write(ByteBuffer.allocate(20)));
+			assertEquals(0, b.write(ByteBuffer.allocate(4)));
+			b.close();
+			assertEquals(16, a.read(buffer.clear()));
+			assertEquals(-1, a.read(buffer.clear()));
+			assertThrows(IOException.class, () -> a.write(ByteBuffer.allocate(4)));
+		} finally {
+			Files.delete(path);
+		}
+	}
+
+	@Test
+	void testConnection() throws IOException {
+		Path path = Files.createTempFile("transporter", ".shm");
+
+		try {
+			MyConnection server = drive(new MyConnection(SharedMemoryChannel.create(path, 1024)));
+			MyConnection client = drive(new MyConnection(SharedMemoryChannel.open(path)));
+			assertEquals(42, server.ping(42));
+			assertEquals(727, client.ping(727));
+			client.close();
+			server.closeTask.join();
+			client.closeTask.join();
+		} finally {
+			Files.delete(path);
+		}
+	}
+
+	private static MyConnection drive(MyConnection connection) {
+		Thread.startVirtualThread(() -> {
+			try {
+				while (!connection.isClosed()) {
+					boolean b = connection.channelRead(connection.channel);
+					b |= connection.channelWrite(connection.channel);
+					if (!b) LockSupport.parkNanos(100000L);
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		});
+
+		return connection;
+	}
+}
@@ -0,0 +1,47 @@
+package io.github.nahkd123.transporter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import io.github.nahkd123.transporter.TimingWheel.Timeout;
+
+class TimingWheelTest {
+	@Test
+	void testExpire() {
+		try (TimingWheel wheel = new TimingWheel(Duration.ofMillis(1L), 8)) {
+			List<Integer> fired = new CopyOnWriteArrayList<>();
+			List<Long> late = new CopyOnWriteArrayList<>();
+			CompletableFuture<Void> done = new CompletableFuture<>();
+			// Measured before scheduling, as the thread may be descheduled in between
+			long start = System.nanoTime();
+
+			// 30ms and 60ms are more than one round of 8 buckets away. Timeouts that are
+			// due in the same pass (like when the worker is descheduled) may expire in
+			// any order, so only check that none of them expired early.
+			wheel.schedule(() -> done.complete(null), 60L, TimeUnit.MILLISECONDS);
+			for (int delay : new int[] { 30, 5, 0 }) wheel.schedule(() -> {
+				late.add(System.nanoTime() - start - TimeUnit.MILLISECONDS.toNanos(delay));
+				fired.add(delay);
+			}, delay, TimeUnit.MILLISECONDS);
+			Timeout cancelled = wheel.schedule(() -> fired.add(-1), 10L, TimeUnit.MILLISECONDS);
+			assertTrue(cancelled.cancel());
+
+			done.join();
+			assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(60L));
+			assertEquals(List.of(0, 5, 30), fired.stream().sorted().toList());
+			for (long nanos : late) assertTrue(nanos >= 0L, "Expired %dns early".formatted(-nanos));
+			assertTrue(cancelled.isCancelled());
+			assertFalse(cancelled.isExpired());
+			assertFalse(cancelled.cancel());
+		}
+	}
+}
@@ -1,6 +1,9 @@
 package io.github.nahkd123.transporter;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.fail;
 
 import java.io.IOException;
@@ -12,11 +15,22 @@ import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.locks.LockSupport;
 
 import org.junit.jupiter.api.Test;
 
+import io.github.nahkd123.transporter.RawConnectionTest.MemoryChannel;
 import io.github.nahkd123.transporter.serialize.BufferCodec;
 
 class TransporterConnectionTest {
@@ -147,4 +161,242 @@ class TransporterConnectionTest {
 		client.closeTask.join();
 		Files.deleteIfExists(socketPath);
 	}
+
+	@Test
+	void testRequestTimeout() throws IOException {
+		MemoryChannel channel = new MemoryChannel();
+		MyConnection connection = new MyConnection(channel);
+		connection.setRequestTimeout(Duration.ofMillis(20L));
+		CompletableFuture<PongPacket> dropped = connection.queueRequest(new PingPacket(1));
+		CompletableFuture<PongPacket> waiting = connection.queueRequest(new PingPacket(2), Duration.ZERO);
+		connection.channelWrite(channel);
+
+		CompletionException e = assertThrows(CompletionException.class, dropped::join);
+		assertInstanceOf(TimeoutException.class, e.getCause());
+		assertFalse(waiting.isDone());
+	}
+
+	@Test
+	void testRequestExecutor() {
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			CountDownLatch secondHandled = new CountDownLatch(1);
+			MyConnection client = new MyConnection(new MemoryChannel());
+			MyConnection server = new MyConnection(new MemoryChannel()) {
+				@Override
+				protected void onRequest(Request request) throws Throwable {
+					// First request waits for the second, which would deadlock on reading thread
+					PingPacket ping = (PingPacket) request.packet();
+					if (ping.message() == 1) secondHandled.await();
+					request.responseSuccess(new PongPacket(ping.message()));
+					if (ping.message() == 2) secondHandled.countDown();
+				}
+			};
+
+			server.setRequestExecutor(executor);
+			LoopbackTransport.link(client, server, executor);
+			CompletableFuture<PongPacket> first = client.queueRequest(new PingPacket(1));
+			CompletableFuture<PongPacket> second = client.queueRequest(new PingPacket(2));
+			assertEquals(1, first.join().message());
+			assertEquals(2, second.join().message());
+			client.close();
+		}
+	}
+
+	@Test
+	void testNotificationBatch() throws IOException {
+		MemoryChannel channel = new MemoryChannel();
+		MyConnection sender = new MyConnection(channel);
+		List<List<Object>> runs = new ArrayList<>();
+		MyConnection receiver = new MyConnection(channel) {
+			@Override
+			protected void onNotificationBatch(List<Object> notifications) {
+				runs.add(List.copyOf(notifications));
+			}
+		};
+
+		receiver.setReadBatching(true);
+		sender.queueNotification(new PingPacket(1));
+		sender.queueNotification(new PingPacket(2));
+		sender.queueRequest(new PingPacket(3));
+		sender.queueNotification(new PingPacket(4));
+		sender.channelWrite(channel);
+
+		// The request splits notifications into 2 runs
+		receiver.channelRead(channel);
+		assertEquals(List.of(List.of(new PingPacket(1), new PingPacket(2)), List.of(new PingPacket(4))), runs);
+	}
+
+	@Test
+	void testRequestHandler() throws IOException {
+		MemoryChannel toServer = new MemoryChannel();
+		MemoryChannel toClient = new MemoryChannel();
+		CompletableFuture<PongPacket> pending = new CompletableFuture<>();
+		MyConnection client = new MyConnection(toClient);
+		MyConnection server = new MyConnection(toServer) {
+			{
+				registerRequestHandler(PingPacket.class, ping -> switch (ping.message()) {
+				case 1 -> pending;
+				case 2 -> CompletableFuture.failedFuture(new IOException("Service unavailable"));
+				default -> throw new IllegalStateException("Bad ping");
+				});
+			}
+		};
+
+		CompletableFuture<PongPacket> first = client.queueRequest(new PingPacket(1));
+		CompletableFuture<PongPacket> second = client.queueRequest(new PingPacket(2));
+		CompletableFuture<PongPacket> third = client.queueRequest(new PingPacket(3));
+		client.channelWrite(toServer);
+		server.channelRead(toServer);
+		server.channelWrite(toClient);
+		client.channelRead(toClient);
+		assertFalse(first.isDone());
+		assertEquals("Service unavailable", assertThrows(CompletionException.class, second::join).getCause().getMessage());
+		assertEquals("Bad ping", assertThrows(CompletionException.class, third::join).getCause().getMessage());
+
+		// Response is queued from completing thread
+		pending.complete(new PongPacket(1));
+		server.channelWrite(toClient);
+		client.channelRead(toClient);
+		assertEquals(1, first.join().message());
+	}
+
+	@Test
+	void testRespondOnce() throws IOException {
+		MemoryChannel toServer = new MemoryChannel();
+		MemoryChannel toClient = new MemoryChannel();
+		MyConnection client = new MyConnection(toClient);
+		MyConnection server = new MyConnection(toServer) {
+			@Override
+			protected void onRequest(Request request) throws Throwable {
+				request.responseSuccess(new PongPacket(1));
+				request.responseSuccess(new PongPacket(2));
+				request.responseFailure("Too late");
+				throw new IllegalStateException("Too late");
+			}
+		};
+
+		CompletableFuture<PongPacket> response = client.queueRequest(new PingPacket(1));
+		client.channelWrite(toServer);
+		server.channelRead(toServer);
+		server.channelWrite(toClient);
+		client.channelRead(toClient);
+		assertEquals(1, response.join().message());
+		assertEquals(0, toClient.read(ByteBuffer.allocate(256)));
+	}
+
+	@Test
+	void testRequestLimiter() throws IOException {
+		MemoryChannel toServer = new MemoryChannel();
+		MemoryChannel toClient = new MemoryChannel();
+		MyConnection client = new MyConnection(toClient);
+		List<Integer> received = new ArrayList<>();
+		MyConnection server = new MyConnection(toServer) {
+			@Override
+			protected void onRequest(Request request) throws Throwable {
+				received.add(((PingPacket) request.packet()).message());
+				super.onRequest(request);
+			}
+		};
+
+		client.setRequestLimiter(RequestLimiter.fixed(2), true);
+		List<CompletableFuture<PongPacket>> responses = new ArrayList<>();
+		for (int i = 0; i < 5; i++) responses.add(client.queueRequest(new PingPacket(i)));
+		assertEquals(2, client.getInFlightRequests());
+
+		for (int round = 0; round < 3; round++) {
+			client.channelWrite(toServer);
+			server.channelRead(toServer);
+			assertEquals(Math.min(5, round * 2 + 2), received.size());
+			server.channelWrite(toClient);
+			client.channelRead(toClient);
+		}
+
+		assertEquals(List.of(0, 1, 2, 3, 4), received);
+		for (int i = 0; i < 5; i++) assertEquals(i, responses.get(i).join().message());
+		assertEquals(0, client.getInFlightRequests());
+
+		// Rejecting requests above the limit
+		client.setRequestLimiter(RequestLimiter.fixed(1), false);
+		assertEquals(1, client.getRequestLimit());
+		CompletableFuture<PongPacket> accepted = client.queueRequest(new PingPacket(5));
+		CompletableFuture<PongPacket> rejected = client.queueRequest(new PingPacket(6));
+		assertInstanceOf(RejectedExecutionException.class, assertThrows(CompletionException.class, rejected::join).getCause());
+		client.channelWrite(toServer);
+		server.channelRead(toServer);
+		server.channelWrite(toClient);
+		client.channelRead(toClient);
+		assertEquals(5, accepted.join().message());
+	}
+
+	@Test
+	void testRequestLimiterSamples() throws IOException {
+		MemoryChannel toServer = new MemoryChannel();
+		MemoryChannel toClient = new MemoryChannel();
+		MyConnection client = new MyConnection(toClient);
+		MyConnection server = new MyConnection(toServer) {
+			@Override
+			protected void onRequest(Request request) throws Throwable {
+				if (((PingPacket) request.packet()).message() == 0) request.responseFailure("Failed");
+				else super.onRequest(request);
+			}
+		};
+		List<Boolean> samples = new ArrayList<>();
+		client.setRequestLimiter(new RequestLimiter() {
+			@Override
+			public int limit() {
+				return 10;
+			}
+
+			@Override
+			public void onSample(long rttNanos, int inFlight, boolean dropped) {
+				samples.add(dropped);
+			}
+		}, false);
+
+		// Both success and failure responses are answered by peer
+		CompletableFuture<PongPacket> succeed = client.queueRequest(new PingPacket(1));
+		CompletableFuture<PongPacket> failed = client.queueRequest(new PingPacket(0));
+		client.channelWrite(toServer);
+		server.channelRead(toServer);
+		server.channelWrite(toClient);
+		client.channelRead(toClient);
+		assertEquals(1, succeed.join().message());
+		assertThrows(CompletionException.class, failed::join);
+		assertEquals(List.of(false, false), samples);
+
+		// Local failure is not a sample
+		assertThrows(IllegalArgumentException.class, () -> client.queueRequest("Not registered"));
+		assertEquals(List.of(false, false), samples);
+
+		CompletableFuture<PongPacket> timedOut = client.queueRequest(new PingPacket(2), Duration.ofMillis(10L));
+		assertInstanceOf(TimeoutException.class, assertThrows(CompletionException.class, timedOut::join).getCause());
+		assertEquals(List.of(false, false, true), samples);
+		assertEquals(0, client.getInFlightRequests());
+	}
+
+	@Test
+	void testRequestLimiterOrder() {
+		List<Integer> received = Collections.synchronizedList(new ArrayList<>());
+		MyConnection client = new MyConnection(new MemoryChannel());
+		MyConnection server = new MyConnection(new MemoryChannel()) {
+			@Override
+			protected void onRequest(Request request) throws Throwable {
+				received.add(((PingPacket) request.packet()).message());
+				super.onRequest(request);
+			}
+		};
+
+		// Waiting requests are sent from both this thread and the thread that
+		// receives responses
+		try (ExecutorService executor = Executors.newFixedThreadPool(4)) {
+			client.setRequestLimiter(RequestLimiter.fixed(4), true);
+			LoopbackTransport.link(client, server, executor);
+			List<CompletableFuture<PongPacket>> responses = new ArrayList<>();
+			for (int i = 0; i < 20000; i++) responses.add(client.queueRequest(new PingPacket(i)));
+			for (int i = 0; i < 20000; i++) assertEquals(i, responses.get(i).join().message());
+			client.close();
+		}
+
+		for (int i = 0; i < 20000; i++) assertEquals(i, received.get(i));
+	}
 }
@@ -0,0 +1,93 @@
+package io.github.nahkd123.transporter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.jupiter.api.Test;
+
+import io.github.nahkd123.transporter.TransporterConnectionTest.MyConnection;
+
+class TransporterServerTest {
+	@Test
+	void test() throws IOException {
+		Path socketPath = Path.of(getClass().getName());
+		Files.deleteIfExists(socketPath);
+		List<MyConnection> accepted = new CopyOnWriteArrayList<>();
+
+		try (TransporterServer<MyConnection> server = new TransporterServer<>(2, channel -> {
+			MyConnection connection = new MyConnection(channel);
+			accepted.add(connection);
+			return connection;
+		}); TransporterServer<MyConnection> clients = new TransporterServer<>(1, MyConnection::new)) {
+			server.bind(UnixDomainSocketAddress.of(socketPath));
+			List<MyConnection> connections = new ArrayList<>();
+			for (int i = 0; i < 4; i++) connections.add(clients.connect(UnixDomainSocketAddress.of(socketPath)));
+			for (int i = 0; i < 4; i++) assertEquals(i * 100, connections.get(i).ping(i * 100));
+
+			assertEquals(4, accepted.size());
+			for (MyConnection connection : accepted) assertEquals(727, connection.ping(727));
+
+			connections.get(0).close();
+			connections.get(0).closeTask.join();
+			accepted.get(0).closeTask.join();
+		} finally {
+			Files.deleteIfExists(socketPath);
+		}
+
+		for (MyConnection connection : accepted) assertTrue(connection.isClosed());
+	}
+
+	@Test
+	void testFlushDeadline() throws IOException {
+		Path socketPath = Path.of(getClass().getName() + ".flush");
+		Files.deleteIfExists(socketPath);
+
+		try (TransporterServer<MyConnection> server = new TransporterServer<>(1, channel -> {
+			MyConnection connection = new MyConnection(channel);
+			connection.setFlushPolicy(FlushPolicy.coalesce(65536, Duration.ofMillis(5L)));
+			return connection;
+		}); TransporterServer<MyConnection> clients = new TransporterServer<>(1, MyConnection::new)) {
+			server.bind(UnixDomainSocketAddress.of(socketPath));
+			MyConnection connection = clients.connect(UnixDomainSocketAddress.of(socketPath));
+
+			// Responses are held by server until deadline
+			for (int i = 0; i < 10; i++) assertEquals(i, connection.ping(i));
+		} finally {
+			Files.deleteIfExists(socketPath);
+		}
+	}
+
+	@Test
+	void testErrorHandler() throws IOException {
+		Path socketPath = Path.of(getClass().getName() + ".error");
+		Files.deleteIfExists(socketPath);
+		CompletableFuture<Throwable> error = new CompletableFuture<>();
+
+		try (TransporterServer<MyConnection> server = new TransporterServer<>(1, channel -> {
+			throw new IllegalStateException("Rejected");
+		})) {
+			server.setErrorHandler(error::complete);
+			server.bind(UnixDomainSocketAddress.of(socketPath));
+
+			try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socketPath))) {
+				assertEquals("Rejected", error.join().getMessage());
+				// Channel is closed by server
+				assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+			}
+		} finally {
+			Files.deleteIfExists(socketPath);
+		}
+	}
+}